@@ -0,0 +1,62 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe.benchmarks;
+
+import com.oracle.graphpipe.NativeTensor;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between INDArrays and tensors. nd4j only holds floats and
+ * doubles, so only those are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class NdArrayBenchmark {
+    @Param({"float", "double"})
+    public String dtype;
+
+    @Param({"2", "3"})
+    public int rank;
+
+    @Param({"1024", "1048576", "104857600"})
+    public int bytes;
+
+    private NativeTensor tensor;
+    private INDArray ndArray;
+
+    @Setup
+    public void setUp() {
+        // nd4j has no rank-1 arrays, hence ranks 2 and 3.
+        tensor = Payloads.tensor(dtype, bytes, rank);
+        ndArray = tensor.toINDArray();
+    }
+
+    @Benchmark
+    public NativeTensor fromINDArray() {
+        return NativeTensor.fromINDArray(ndArray);
+    }
+
+    @Benchmark
+    public INDArray toINDArray() {
+        return tensor.toINDArray();
+    }
+}
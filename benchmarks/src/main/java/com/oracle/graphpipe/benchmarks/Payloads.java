@@ -0,0 +1,117 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe.benchmarks;
+
+import com.oracle.graphpipe.NativeTensor;
+
+import java.lang.reflect.Array;
+
+/**
+ * Test data: arrays of each element type, of a given size in bytes, shaped
+ * as tensors of a given rank.
+ */
+class Payloads {
+    static int elemSize(String dtype) {
+        switch (dtype) {
+            case "byte":
+                return 1;
+            case "short":
+            case "float16":
+                return 2;
+            case "int":
+            case "float":
+                return 4;
+            case "long":
+            case "double":
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown dtype " + dtype);
+        }
+    }
+
+    /**
+     * A flat primitive array of about {@code bytes} bytes.
+     */
+    static Object flatArray(String dtype, int bytes) {
+        int n = Math.max(1, bytes / elemSize(dtype));
+        switch (dtype) {
+            case "byte": {
+                byte[] a = new byte[n];
+                for (int i = 0; i < n; i++) a[i] = (byte)i;
+                return a;
+            }
+            case "short": {
+                short[] a = new short[n];
+                for (int i = 0; i < n; i++) a[i] = (short)i;
+                return a;
+            }
+            case "int": {
+                int[] a = new int[n];
+                for (int i = 0; i < n; i++) a[i] = i;
+                return a;
+            }
+            case "long": {
+                long[] a = new long[n];
+                for (int i = 0; i < n; i++) a[i] = i;
+                return a;
+            }
+            case "float": {
+                float[] a = new float[n];
+                for (int i = 0; i < n; i++) a[i] = i * 0.5f;
+                return a;
+            }
+            case "double": {
+                double[] a = new double[n];
+                for (int i = 0; i < n; i++) a[i] = i * 0.5;
+                return a;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown dtype " + dtype);
+        }
+    }
+
+    /**
+     * A shape of the given rank holding at most {@code n} elements: the
+     * inner dimensions are equal, and dimension 0 takes the rest.
+     */
+    static long[] shape(int n, int rank) {
+        long[] shape = new long[rank];
+        int inner = (int)Math.max(1, Math.floor(Math.pow(n, 1.0 / rank)));
+        long rest = n;
+        for (int i = rank - 1; i > 0; i--) {
+            shape[i] = inner;
+            rest /= inner;
+        }
+        shape[0] = rest;
+        return shape;
+    }
+
+    static long count(long[] shape) {
+        long n = 1;
+        for (long d : shape) n *= d;
+        return n;
+    }
+
+    /**
+     * A tensor of about {@code bytes} bytes. The flat array is truncated to
+     * fit the shape.
+     */
+    static NativeTensor tensor(String dtype, int bytes, int rank) {
+        if (dtype.equals("float16")) {
+            return tensor("float", bytes * 2, rank).toFloat16();
+        }
+        Object flat = flatArray(dtype, bytes);
+        long[] shape = shape(Array.getLength(flat), rank);
+        return NativeTensor.fromFlatArray(
+                truncate(flat, (int)count(shape)), shape);
+    }
+
+    static Object truncate(Object flat, int n) {
+        Object out = Array.newInstance(
+                flat.getClass().getComponentType(), n);
+        System.arraycopy(flat, 0, out, 0, n);
+        return out;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe.benchmarks;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.oracle.graphpipe.NativeTensor;
+import com.oracle.graphpipe.Remote;
+import com.oracle.graphpipefb.InferResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding requests and decoding responses, without the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RequestBenchmark {
+    @Param({"byte", "short", "int", "long", "float16", "float", "double"})
+    public String dtype;
+
+    @Param({"1024", "1048576", "104857600"})
+    public int bytes;
+
+    private List<NativeTensor> inputs;
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        NativeTensor tensor = Payloads.tensor(dtype, bytes, 2);
+        inputs = Collections.singletonList(tensor);
+
+        FlatBufferBuilder b = new FlatBufferBuilder(bytes + 1024);
+        int[] outputs = {tensor.Build(b)};
+        int vector = InferResponse.createOutputTensorsVector(b, outputs);
+        InferResponse.startInferResponse(b);
+        InferResponse.addOutputTensors(b, vector);
+        b.finish(InferResponse.endInferResponse(b));
+        response = b.sizedByteArray();
+    }
+
+    @Benchmark
+    public ByteBuffer buildRequest() {
+        return Remote.BuildRequest("", inputs,
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    /** Decoding alone: outputs are views into the response. */
+    @Benchmark
+    public List<NativeTensor> parseResponse() {
+        return Remote.ParseResponse(ByteBuffer.wrap(response));
+    }
+
+    /** Decoding plus copying the output into a Java array. */
+    @Benchmark
+    public Object parseResponseToFlatArray() {
+        return Remote.ParseResponse(ByteBuffer.wrap(response))
+                .get(0).toFlatArray();
+    }
+}
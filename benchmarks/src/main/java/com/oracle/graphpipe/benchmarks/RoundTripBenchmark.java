@@ -0,0 +1,78 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe.benchmarks;
+
+import com.oracle.graphpipe.GraphPipeClient;
+import com.oracle.graphpipe.NativeTensor;
+import com.oracle.graphpipe.Remote;
+import com.oracle.graphpipe.StubServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole requests against a server in the same process, so the network cost
+ * is loopback only: once through Remote.ExecuteMulti and once through a
+ * pooled GraphPipeClient. Run with "-t N" to measure N concurrent callers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RoundTripBenchmark {
+    @Param({"float"})
+    public String dtype;
+
+    @Param({"1024", "1048576", "16777216"})
+    public int bytes;
+
+    private StubServer server;
+    private String uri;
+    private List<NativeTensor> inputs;
+    private GraphPipeClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StubServer();
+        uri = server.uri();
+        inputs = Collections.singletonList(Payloads.tensor(dtype, bytes, 2));
+        client = GraphPipeClient.builder().build();
+        client.connect(uri);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<NativeTensor> executeMulti() throws IOException {
+        return Remote.ExecuteMulti("", uri, inputs,
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Benchmark
+    public List<NativeTensor> clientExecuteMulti() throws IOException {
+        return client.executeMulti("", uri, inputs,
+                Collections.emptyList(), Collections.emptyList());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe.benchmarks;
+
+import com.oracle.graphpipe.NativeTensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions between Java arrays and tensors, for every numeric element
+ * type, at ranks 1-3 and sizes from 1 KB to 100 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TensorBenchmark {
+    @Param({"byte", "short", "int", "long", "float", "double"})
+    public String dtype;
+
+    @Param({"1", "2", "3"})
+    public int rank;
+
+    @Param({"1024", "1048576", "104857600"})
+    public int bytes;
+
+    private Object flat;
+    private long[] shape;
+    private Object nested;
+    private NativeTensor tensor;
+
+    @Setup
+    public void setUp() {
+        tensor = Payloads.tensor(dtype, bytes, rank);
+        flat = tensor.toFlatArray();
+        shape = tensor.getShape().stream().mapToLong(l -> l).toArray();
+        nested = tensor.toArray();
+    }
+
+    @Benchmark
+    public NativeTensor fromArray() {
+        return NativeTensor.fromArray(nested);
+    }
+
+    @Benchmark
+    public NativeTensor fromFlatArray() {
+        return NativeTensor.fromFlatArray(flat, shape);
+    }
+
+    @Benchmark
+    public Object toArray() {
+        return tensor.toArray();
+    }
+
+    @Benchmark
+    public Object toFlatArray() {
+        return tensor.toFlatArray();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of warmed-up FlatBufferBuilders.
+ *
+ * A fresh builder starts small and doubles (copying each time) until the
+ * request fits. Pooled builders keep their buffers between requests and are
+ * grown once, straight to the requested size, so at steady state encoding a
+ * request doesn't allocate a new buffer.
+ *
+ * Builders come on-heap or off-heap. Requests whose tensors live off-heap
+ * are encoded into off-heap builders, so their data is copied from one
+ * direct buffer to another. Asynchronous (NIO) exchanges write that buffer
+ * straight to the socket; blocking ones still stage it through an 8 KB
+ * heap chunk at a time (see {@link FlatBufferEntity#writeTo}).
+ */
+class BuilderPool {
+    private final ArrayBlockingQueue<PooledBuilder> heap;
+    private final ArrayBlockingQueue<PooledBuilder> direct;
+    private final int maxRetainedBytes;
+
+    /**
+     * @param maxBuilders How many idle builders to keep.
+     * @param maxRetainedBytes Builders whose buffer has grown beyond this
+     * are dropped on release instead of being pooled.
+     */
+    BuilderPool(int maxBuilders, int maxRetainedBytes) {
+        this.heap = new ArrayBlockingQueue<>(Math.max(1, maxBuilders));
+        this.direct = new ArrayBlockingQueue<>(Math.max(1, maxBuilders));
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Returns an empty builder with room for at least {@code sizeHint}
+     * bytes. It must be handed back with {@link #release} once its
+     * finished buffer is no longer needed.
+     */
+    PooledBuilder acquire(int sizeHint) {
+        return acquire(sizeHint, false);
+    }
+
+    /** Like {@link #acquire(int)}, but off-heap if {@code direct}. */
+    PooledBuilder acquire(int sizeHint, boolean direct) {
+        PooledBuilder pb = (direct ? this.direct : this.heap).poll();
+        if (pb == null) {
+            return new PooledBuilder(sizeHint, direct);
+        }
+        if (pb.capacity() < sizeHint) {
+            ByteBuffer old = pb.buffer;
+            pb.builder.init(pb.newByteBuffer(sizeHint), pb);
+            DirectBuffers.free(old);
+        } else {
+            pb.builder.clear();
+        }
+        return pb;
+    }
+
+    void release(PooledBuilder pb) {
+        if (pb.capacity() > maxRetainedBytes
+                || !(pb.direct ? direct : heap).offer(pb)) {
+            // Off-heap memory would otherwise wait for a GC to be freed.
+            DirectBuffers.free(pb.buffer);
+        }
+    }
+
+    int idle() {
+        return heap.size() + direct.size();
+    }
+
+    /**
+     * A builder plus the buffer it is currently writing into. The builder
+     * allocates through this factory, which is how we see its capacity
+     * (FlatBufferBuilder only exposes its buffer once finished).
+     */
+    static class PooledBuilder implements FlatBufferBuilder.ByteBufferFactory {
+        final FlatBufferBuilder builder;
+        final boolean direct;
+        private ByteBuffer buffer;
+
+        private PooledBuilder(int initialSize, boolean direct) {
+            this.direct = direct;
+            this.builder = new FlatBufferBuilder(
+                    newByteBuffer(Math.max(1, initialSize)), this);
+        }
+
+        @Override
+        public ByteBuffer newByteBuffer(int capacity) {
+            // When the builder grows it still copies out of the old buffer
+            // after this returns, so that is left to the GC.
+            this.buffer = (direct
+                    ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return this.buffer;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+}
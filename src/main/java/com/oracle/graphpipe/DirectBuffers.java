@@ -0,0 +1,70 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees direct ByteBuffers without waiting for the garbage collector.
+ *
+ * There's no public API for this, so we use the JDK's own cleaner: via
+ * Unsafe.invokeCleaner on Java 9+, or DirectBuffer.cleaner() on Java 8. If
+ * neither is available, free() does nothing and the memory is reclaimed by
+ * the GC as usual.
+ */
+class DirectBuffers {
+    private interface Freer {
+        void free(ByteBuffer bb) throws Exception;
+    }
+
+    private static final Freer FREER = findFreer();
+
+    private static Freer findFreer() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner =
+                    unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return bb -> invokeCleaner.invoke(unsafe, bb);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not Java 9+.
+        }
+        try {
+            ByteBuffer probe = ByteBuffer.allocateDirect(1);
+            Method cleanerMethod = probe.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Method clean = cleanerMethod.getReturnType().getMethod("clean");
+            clean.setAccessible(true);
+            return bb -> {
+                Object cleaner = cleanerMethod.invoke(bb);
+                if (cleaner != null) {
+                    clean.invoke(cleaner);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases the buffer's memory immediately. The buffer must have been
+     * returned by ByteBuffer.allocateDirect() (not a slice or duplicate),
+     * and must never be touched again.
+     */
+    static void free(ByteBuffer bb) {
+        if (FREER == null || !bb.isDirect()) {
+            return;
+        }
+        try {
+            FREER.free(bb);
+        } catch (Exception e) {
+            // Leave it to the GC.
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A request body sent straight from the buffer it was encoded into (a
+ * finished FlatBufferBuilder's), from its position to its limit, without
+ * first being copied into an array of its own.
+ *
+ * The blocking transport writes it with {@link #writeTo}, the non-blocking
+ * one with {@link #produceContent}. The buffer's position is never moved,
+ * so the entity can be sent again, but the buffer must not be reused until
+ * the exchange is over.
+ */
+class FlatBufferEntity extends AbstractHttpEntity
+        implements HttpAsyncContentProducer {
+    // Heap buffers are written in one go, direct ones through this much of
+    // an array at a time.
+    private static final int CHUNK = 8192;
+
+    private final ByteBuffer content;
+    // Where the non-blocking transport has got to.
+    private ByteBuffer producing;
+
+    FlatBufferEntity(ByteBuffer content, boolean chunked) {
+        this.content = content.duplicate();
+        setChunked(chunked);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.remaining();
+    }
+
+    @Override
+    public InputStream getContent() {
+        ByteBuffer bb = content.duplicate();
+        if (bb.hasArray()) {
+            return new ByteArrayInputStream(bb.array(),
+                    bb.arrayOffset() + bb.position(), bb.remaining());
+        }
+        return new InputStream() {
+            @Override
+            public int read() {
+                return bb.hasRemaining() ? bb.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!bb.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, bb.remaining());
+                bb.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer bb = content.duplicate();
+        if (bb.hasArray()) {
+            out.write(bb.array(), bb.arrayOffset() + bb.position(),
+                    bb.remaining());
+        } else {
+            byte[] chunk = new byte[Math.min(CHUNK, bb.remaining())];
+            while (bb.hasRemaining()) {
+                int n = Math.min(chunk.length, bb.remaining());
+                bb.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl)
+            throws IOException {
+        if (producing == null) {
+            producing = content.duplicate();
+        }
+        encoder.write(producing);
+        if (!producing.hasRemaining()) {
+            encoder.complete();
+        }
+    }
+
+    @Override
+    public void close() {
+        // Start over if sent again.
+        producing = null;
+    }
+}
@@ -0,0 +1,1122 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.oracle.graphpipefb.Type;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived, thread-safe GraphPipe client.
+ *
+ * Connections are kept alive and pooled per route, so repeated calls to the
+ * same model server reuse sockets instead of paying a new handshake each
+ * time. Create one instance per application (or use {@link #getDefault()})
+ * and {@link #close()} it on shutdown.
+ *
+ * Every {@code execute} method has an {@code executeAsync} counterpart that
+ * returns a {@link CompletableFuture} and runs on a non-blocking transport.
+ *
+ * Model metadata is cached per endpoint (see {@link #getMetadata}). With
+ * {@link Builder#validateRequests} set, every request is checked against it
+ * before being sent, so a wrong name, type or shape fails locally instead of
+ * costing a round trip and a server error.
+ *
+ * Encode, network and decode times and byte counts of every inference can
+ * be reported to a {@link MetricsListener} (see {@link Builder#metrics}).
+ *
+ * With {@link Builder#singleFlight} set, identical inferences in flight at
+ * the same time share one request and its response.
+ *
+ * Requests go over pooled HTTP/1.1 connections unless another
+ * {@link Transport} is plugged in with {@link Builder#transport}. URIs like
+ * {@code unix:///var/run/model.sock} always go over a Unix domain socket
+ * (see {@link UnixSocketTransport}).
+ */
+public class GraphPipeClient implements Closeable {
+    private static class DefaultHolder {
+        static final GraphPipeClient INSTANCE = builder().build();
+    }
+
+    /**
+     * The shared instance used by the static {@link Remote} methods.
+     */
+    public static GraphPipeClient getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final TimedConnectionManager connManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig requestConfig;
+    private final BuilderPool builderPool;
+    private final ResponseReader responseReader;
+    private final IOReactorConfig ioConfig;
+    private final int connectTimeout;
+    private final long keepAliveMillis;
+    private final int maxTotal;
+    private final int maxInFlightPerEndpoint;
+    private final long metadataTtlNanos;
+    private final boolean validateRequests;
+    private final boolean float16Transport;
+    private final boolean chunkedRequests;
+    private final MetricsListener metrics;
+    // Null for the built-in HTTP/1.1 transport.
+    private final Transport transport;
+    // Null unless identical in-flight requests are to share an exchange.
+    private final SingleFlight singleFlight;
+    private final ConcurrentMap<String, CachedMetadata> metadataCache =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InFlightLimiter> limiters =
+            new ConcurrentHashMap<>();
+    // Created on first use so blocking-only users don't pay for I/O threads.
+    private volatile CloseableHttpAsyncClient asyncClient;
+    // Created on first use of a unix:// URI.
+    private volatile UnixSocketTransport unixTransport;
+
+    private GraphPipeClient(Builder b) {
+        this.connectTimeout = b.connectTimeout;
+        this.keepAliveMillis = b.keepAliveMillis;
+        this.maxTotal = b.maxTotal;
+        this.maxInFlightPerEndpoint = b.maxInFlightPerEndpoint;
+        this.metadataTtlNanos = b.metadataTtlNanos;
+        this.validateRequests = b.validateRequests;
+        this.float16Transport = b.float16Transport;
+        this.chunkedRequests = b.chunkedRequests;
+        this.transport = b.transport;
+        this.metrics = b.metrics;
+        this.singleFlight = b.singleFlight ? new SingleFlight(b.metrics) : null;
+        this.builderPool = new BuilderPool(
+                b.builderPoolSize, b.maxPooledBuilderBytes);
+        this.responseReader = new ResponseReader(b.directResponseBuffers);
+
+        this.connManager = new TimedConnectionManager(
+                b.timeToLiveMillis, TimeUnit.MILLISECONDS);
+        this.connManager.setMaxTotal(b.maxTotal);
+        this.connManager.setDefaultMaxPerRoute(b.maxPerRoute);
+        this.connManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(b.tcpNoDelay)
+                .setSoKeepAlive(b.soKeepAlive)
+                .setSoTimeout(b.socketTimeout)
+                .setSndBufSize(b.sendBufferSize)
+                .setRcvBufSize(b.receiveBufferSize)
+                .build());
+        this.connManager.setValidateAfterInactivity(b.validateAfterInactivity);
+
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout(b.connectTimeout)
+                .setConnectionRequestTimeout(b.poolTimeout)
+                .setSocketTimeout(b.socketTimeout)
+                .build();
+        this.ioConfig = IOReactorConfig.custom()
+                .setIoThreadCount(b.ioThreads)
+                .setConnectTimeout(b.connectTimeout)
+                .setSoTimeout(b.socketTimeout)
+                .setTcpNoDelay(b.tcpNoDelay)
+                .setSoKeepAlive(b.soKeepAlive)
+                .setSndBufSize(b.sendBufferSize)
+                .setRcvBufSize(b.receiveBufferSize)
+                .build();
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(this::keepAliveDuration)
+                .evictExpiredConnections()
+                .evictIdleConnections(
+                        b.maxIdleMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public NativeTensor execute(String uri, NativeTensor input)
+            throws IOException {
+        List<NativeTensor> inputs = Collections.singletonList(input);
+        List<String> inputNames = Collections.emptyList();
+        List<String> outputNames = Collections.emptyList();
+        return executeMulti("", uri, inputs, inputNames, outputNames).get(0);
+    }
+
+    public NativeTensor execute(
+            String uri, NativeTensor input, String inputName, String outputName)
+            throws IOException {
+        return execute(uri, input, inputName, outputName, "");
+    }
+
+    public NativeTensor execute(
+            String uri, NativeTensor input, String inputName,
+            String outputName, String config)
+            throws IOException {
+        List<NativeTensor> inputs = Collections.singletonList(input);
+        List<String> inputNames = Collections.singletonList(inputName);
+        List<String> outputNames = Collections.singletonList(outputName);
+        return executeMulti(config, uri, inputs, inputNames, outputNames).get(0);
+    }
+
+    public List<NativeTensor> executeMulti(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames)
+            throws IOException {
+        try {
+            if (validateRequests) {
+                getMetadata(uri).validate(inputs, inputNames, outputNames);
+            }
+            if (singleFlight != null) {
+                byte[] arr = encode(
+                        uri, config, inputs, inputNames, outputNames);
+                return singleFlight.execute(uri, arr, () -> decode(
+                        uri, exchange(uri, ByteBuffer.wrap(arr), metrics)));
+            }
+            BuilderPool.PooledBuilder pb = encodeInPlace(
+                    uri, config, inputs, inputNames, outputNames, true);
+            try {
+                return decode(uri, exchange(
+                        uri, pb.builder.dataBuffer(), metrics));
+            } finally {
+                builderPool.release(pb);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.onError(uri, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the model's metadata, fetching it with a MetadataRequest the
+     * first time and again once the cached copy is older than
+     * {@link Builder#metadataTtl}.
+     */
+    public ModelMetadata getMetadata(String uri) throws IOException {
+        CachedMetadata cached = cachedMetadata(uri);
+        if (cached != null) {
+            return cached.metadata;
+        }
+        return cacheMetadata(uri, Remote.ParseMetadataResponse(
+                exchange(uri, metadataRequest(), MetricsListener.NONE)));
+    }
+
+    public CompletableFuture<ModelMetadata> getMetadataAsync(String uri) {
+        CachedMetadata cached = cachedMetadata(uri);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.metadata);
+        }
+        return exchangeAsync(uri, metadataRequest(), MetricsListener.NONE)
+                .thenApply(
+                bb -> cacheMetadata(uri, Remote.ParseMetadataResponse(bb)));
+    }
+
+    /**
+     * Drops the cached metadata for the endpoint, e.g. after deploying a new
+     * model behind it.
+     */
+    public void invalidateMetadata(String uri) {
+        metadataCache.remove(uri);
+    }
+
+    private CachedMetadata cachedMetadata(String uri) {
+        CachedMetadata cached = metadataCache.get(uri);
+        if (cached == null || System.nanoTime() - cached.expiresAt >= 0) {
+            return null;
+        }
+        return cached;
+    }
+
+    private ModelMetadata cacheMetadata(String uri, ModelMetadata metadata) {
+        metadataCache.put(uri, new CachedMetadata(
+                metadata, System.nanoTime() + metadataTtlNanos));
+        return metadata;
+    }
+
+    private static ByteBuffer metadataRequest() {
+        return Remote.BuildMetadataRequest();
+    }
+
+    private ByteBuffer exchange(
+            String uri, ByteBuffer body, MetricsListener metrics)
+            throws IOException {
+        Transport via = transportFor(uri);
+        if (via != null) {
+            long start = System.nanoTime();
+            ByteBuffer bb = via.exchange(uri, body);
+            metrics.onResponse(
+                    uri, System.nanoTime() - start, 0, bb.remaining());
+            return bb;
+        }
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(new FlatBufferEntity(body, chunkedRequests));
+
+        connManager.resetLeaseTime();
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            long headers = System.nanoTime();
+            checkStatus(response);
+            ByteBuffer bb = responseReader.read(response.getEntity());
+            long poolWait = connManager.lastLeaseTime();
+            metrics.onPoolWait(uri, poolWait);
+            metrics.onResponse(uri, headers - start - poolWait,
+                    System.nanoTime() - headers, bb.remaining());
+            return bb;
+        }
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(
+            String uri, NativeTensor input) {
+        List<NativeTensor> inputs = Collections.singletonList(input);
+        List<String> inputNames = Collections.emptyList();
+        List<String> outputNames = Collections.emptyList();
+        return executeMultiAsync("", uri, inputs, inputNames, outputNames)
+                .thenApply(outputs -> outputs.get(0));
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(
+            String uri, NativeTensor input, String inputName, String outputName) {
+        return executeAsync(uri, input, inputName, outputName, "");
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(
+            String uri, NativeTensor input, String inputName,
+            String outputName, String config) {
+        List<NativeTensor> inputs = Collections.singletonList(input);
+        List<String> inputNames = Collections.singletonList(inputName);
+        List<String> outputNames = Collections.singletonList(outputName);
+        return executeMultiAsync(config, uri, inputs, inputNames, outputNames)
+                .thenApply(outputs -> outputs.get(0));
+    }
+
+    /**
+     * Like {@link #executeMulti}, but returns immediately. The request is
+     * encoded on the calling thread and sent from a small pool of I/O
+     * threads; at most {@link Builder#maxInFlightPerEndpoint} requests per
+     * endpoint are outstanding at once, and the rest are queued.
+     * Cancelling the returned future aborts the exchange. Every failure,
+     * including invalid or unencodable inputs, completes the future
+     * exceptionally; nothing is thrown.
+     */
+    public CompletableFuture<List<NativeTensor>> executeMultiAsync(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        CompletableFuture<List<NativeTensor>> result;
+        if (validateRequests) {
+            result = getMetadataAsync(uri).thenCompose(metadata -> {
+                metadata.validate(inputs, inputNames, outputNames);
+                return encodeAndSend(
+                        uri, config, inputs, inputNames, outputNames);
+            });
+        } else {
+            try {
+                result = encodeAndSend(
+                        uri, config, inputs, inputNames, outputNames);
+            } catch (RuntimeException e) {
+                // Counted in metrics below, like any other failure.
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+        }
+        CompletableFuture<List<NativeTensor>> sent = result;
+        sent.whenComplete((outputs, e) -> {
+            if (e != null && !sent.isCancelled()) {
+                metrics.onError(uri, e instanceof CompletionException
+                        ? e.getCause() : e);
+            }
+        });
+        return sent;
+    }
+
+    /**
+     * Validates (if enabled) and encodes a request for the endpoint, so it
+     * can be sent with {@link #sendAsync}, possibly more than once.
+     */
+    CompletableFuture<byte[]> encodeAsync(
+            String uri, String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        CompletableFuture<byte[]> result;
+        if (validateRequests) {
+            result = getMetadataAsync(uri).thenApply(metadata -> {
+                metadata.validate(inputs, inputNames, outputNames);
+                return encode(uri, config, inputs, inputNames, outputNames);
+            });
+        } else {
+            try {
+                result = CompletableFuture.completedFuture(encode(
+                        uri, config, inputs, inputNames, outputNames));
+            } catch (RuntimeException e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+        }
+        CompletableFuture<byte[]> encoded = result;
+        encoded.whenComplete((arr, e) -> {
+            if (e != null) {
+                metrics.onError(uri, e instanceof CompletionException
+                        ? e.getCause() : e);
+            }
+        });
+        return encoded;
+    }
+
+    /**
+     * Sends a request encoded by {@link #encodeAsync}. Cancelling the
+     * returned future aborts the exchange.
+     */
+    CompletableFuture<List<NativeTensor>> sendAsync(String uri, byte[] request) {
+        CompletableFuture<List<NativeTensor>> result = send(uri, request);
+        result.whenComplete((outputs, e) -> {
+            if (e != null && !result.isCancelled()) {
+                metrics.onError(uri, e instanceof CompletionException
+                        ? e.getCause() : e);
+            }
+        });
+        return result;
+    }
+
+    // Exchanges and decodes, sharing the exchange of an identical request
+    // in flight if single-flight is on. Cancelling the result aborts the
+    // exchange (once nobody else shares it).
+    private CompletableFuture<List<NativeTensor>> send(
+            String uri, byte[] request) {
+        if (singleFlight != null) {
+            return singleFlight.executeAsync(uri, request,
+                    () -> sendUnshared(uri, ByteBuffer.wrap(request)));
+        }
+        return sendUnshared(uri, ByteBuffer.wrap(request));
+    }
+
+    // Encodes into a pooled builder and sends straight from its buffer, or,
+    // with single-flight, from a copy that later requests can be compared
+    // against.
+    private CompletableFuture<List<NativeTensor>> encodeAndSend(
+            String uri, String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        if (singleFlight != null) {
+            return send(uri, encode(
+                    uri, config, inputs, inputNames, outputNames));
+        }
+        BuilderPool.PooledBuilder pb = encodeInPlace(
+                uri, config, inputs, inputNames, outputNames, true);
+        CompletableFuture<List<NativeTensor>> result =
+                sendUnshared(uri, pb.builder.dataBuffer());
+        result.whenComplete((outputs, e) -> {
+            // After a failure or cancellation an I/O thread may still be
+            // writing from the buffer, so the builder isn't reused.
+            if (e == null) {
+                builderPool.release(pb);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<List<NativeTensor>> sendUnshared(
+            String uri, ByteBuffer request) {
+        CompletableFuture<ByteBuffer> exchange =
+                exchangeAsync(uri, request, metrics);
+        CompletableFuture<List<NativeTensor>> result =
+                exchange.thenApply(bb -> decode(uri, bb));
+        result.whenComplete((outputs, e) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    // Encodes into an array of its own, for requests that are kept beyond
+    // one exchange (hedged or shared ones).
+    private byte[] encode(
+            String uri, String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        BuilderPool.PooledBuilder pb = encodeInPlace(
+                uri, config, inputs, inputNames, outputNames, false);
+        try {
+            ByteBuffer req = pb.builder.dataBuffer();
+            byte[] arr = new byte[req.remaining()];
+            req.get(arr);
+            return arr;
+        } finally {
+            builderPool.release(pb);
+        }
+    }
+
+    // Encodes into a pooled builder; the request is its dataBuffer(). The
+    // caller must release the builder once the request has been sent. If
+    // allowDirect and any input is off-heap, so is the builder. Only async
+    // exchanges then write straight from off-heap memory; blocking ones copy
+    // the request through an 8 KB heap chunk at a time.
+    private BuilderPool.PooledBuilder encodeInPlace(
+            String uri, String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames,
+            boolean allowDirect) {
+        long start = System.nanoTime();
+        if (float16Transport) {
+            List<NativeTensor> narrowed = new ArrayList<>(inputs.size());
+            for (NativeTensor t : inputs) {
+                int type = t.getType();
+                narrowed.add(type == Type.Float32 || type == Type.Float64
+                        ? t.toFloat16() : t);
+            }
+            inputs = narrowed;
+        }
+        BuilderPool.PooledBuilder pb = builderPool.acquire(
+                Remote.estimateRequestSize(
+                        config, inputs, inputNames, outputNames),
+                allowDirect && anyDirect(inputs));
+        try {
+            ByteBuffer req = Remote.BuildRequest(
+                    pb.builder, config, inputs, inputNames, outputNames);
+            metrics.onEncode(uri, System.nanoTime() - start, req.remaining());
+            return pb;
+        } catch (RuntimeException e) {
+            builderPool.release(pb);
+            throw e;
+        }
+    }
+
+    private static boolean anyDirect(List<NativeTensor> inputs) {
+        for (NativeTensor t : inputs) {
+            if (t.isDirect()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<NativeTensor> decode(String uri, ByteBuffer resp) {
+        long start = System.nanoTime();
+        List<NativeTensor> outputs = Remote.ParseResponse(resp);
+        if (float16Transport) {
+            for (int i = 0; i < outputs.size(); i++) {
+                if (outputs.get(i).getType() == Type.Float16) {
+                    outputs.set(i, outputs.get(i).toFloat32());
+                }
+            }
+        }
+        metrics.onDecode(uri, System.nanoTime() - start);
+        return outputs;
+    }
+
+    private CompletableFuture<ByteBuffer> exchangeAsync(
+            String uri, ByteBuffer body, MetricsListener metrics) {
+        Transport via = transportFor(uri);
+        CloseableHttpAsyncClient client = via == null ? asyncClient() : null;
+        InFlightLimiter limiter = limiters.computeIfAbsent(
+                uri, k -> new InFlightLimiter(maxInFlightPerEndpoint));
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        long queued = System.nanoTime();
+
+        limiter.submit(() -> {
+            if (result.isDone()) {
+                // Cancelled while queued.
+                limiter.release();
+                return;
+            }
+            long start = System.nanoTime();
+            metrics.onPoolWait(uri, start - queued);
+            if (via != null) {
+                exchangeThroughTransport(
+                        via, uri, body, metrics, start, limiter, result);
+                return;
+            }
+            ResponseReader.HttpAsyncConsumer consumer =
+                    responseReader.asyncConsumer();
+            Future<ByteBuffer> f;
+            try {
+                HttpPost post = new HttpPost(uri);
+                post.setEntity(new FlatBufferEntity(body, chunkedRequests));
+                f = client.execute(
+                        HttpAsyncMethods.create(post),
+                        consumer,
+                        new FutureCallback<ByteBuffer>() {
+                    @Override
+                    public void completed(ByteBuffer body) {
+                        long headers = consumer.responseReceivedAt();
+                        metrics.onResponse(uri, headers - start,
+                                System.nanoTime() - headers,
+                                body.remaining());
+                        limiter.release();
+                        result.complete(body);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        limiter.release();
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        limiter.release();
+                        result.cancel(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                limiter.release();
+                result.completeExceptionally(e);
+                return;
+            }
+            result.whenComplete((r, t) -> {
+                if (result.isCancelled()) {
+                    f.cancel(true);
+                }
+            });
+        });
+        return result;
+    }
+
+    private void exchangeThroughTransport(
+            Transport via, String uri, ByteBuffer body, MetricsListener metrics,
+            long start, InFlightLimiter limiter,
+            CompletableFuture<ByteBuffer> result) {
+        CompletableFuture<ByteBuffer> f;
+        try {
+            f = via.exchangeAsync(uri, body);
+        } catch (RuntimeException e) {
+            limiter.release();
+            result.completeExceptionally(e);
+            return;
+        }
+        f.whenComplete((bb, e) -> {
+            limiter.release();
+            if (f.isCancelled()) {
+                result.cancel(false);
+            } else if (e != null) {
+                result.completeExceptionally(
+                        e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                metrics.onResponse(
+                        uri, System.nanoTime() - start, 0, bb.remaining());
+                result.complete(bb);
+            }
+        });
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                f.cancel(true);
+            }
+        });
+    }
+
+    // Null for the built-in HTTP/1.1 transport.
+    private Transport transportFor(String uri) {
+        return UnixSocketTransport.isUnixUri(uri) ? unixTransport() : transport;
+    }
+
+    private UnixSocketTransport unixTransport() {
+        UnixSocketTransport t = this.unixTransport;
+        if (t == null) {
+            synchronized (this) {
+                t = this.unixTransport;
+                if (t == null) {
+                    t = UnixSocketTransport.builder()
+                            .connectTimeout(connectTimeout)
+                            .socketTimeout(requestConfig.getSocketTimeout())
+                            .maxTotal(maxTotal)
+                            .maxPerSocket(connManager.getDefaultMaxPerRoute())
+                            .build();
+                    this.unixTransport = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private CloseableHttpAsyncClient asyncClient() {
+        CloseableHttpAsyncClient client = this.asyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = this.asyncClient;
+                if (client == null) {
+                    client = createAsyncClient();
+                    client.start();
+                    this.asyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient() {
+        PoolingNHttpClientConnectionManager nConnManager;
+        try {
+            nConnManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(ioConfig));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start I/O reactor", e);
+        }
+        // Each outstanding HTTP/1.1 request needs its own connection.
+        nConnManager.setDefaultMaxPerRoute(maxInFlightPerEndpoint);
+        nConnManager.setMaxTotal(Math.max(maxTotal, maxInFlightPerEndpoint));
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(nConnManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(this::keepAliveDuration)
+                .build();
+    }
+
+    private long keepAliveDuration(HttpResponse response, HttpContext context) {
+        long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                .getKeepAliveDuration(response, context);
+        return serverKeepAlive > 0 ? serverKeepAlive : this.keepAliveMillis;
+    }
+
+    static void checkStatus(HttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            throw new IOException("GraphPipe server returned " + status
+                    + ": " + EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    /**
+     * Opens a connection to the endpoint and parks it in the pool, so the
+     * first real request doesn't pay for the handshake.
+     */
+    public void connect(String uri) throws IOException {
+        connect(uri, 1);
+    }
+
+    /**
+     * Opens up to {@code connections} connections to the endpoint (bounded
+     * by the per-route pool size) and parks them in the pool.
+     */
+    public void connect(String uri, int connections) throws IOException {
+        if (transportFor(uri) != null) {
+            return;
+        }
+        HttpRoute route = routeFor(uri);
+        List<HttpClientConnection> opened = new ArrayList<>(connections);
+        try {
+            int n = Math.min(connections, connManager.getMaxPerRoute(route));
+            for (int i = 0; i < n; i++) {
+                HttpClientConnection conn = leaseConnection(route);
+                opened.add(conn);
+                if (!conn.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connManager.connect(conn, route, connectTimeout, context);
+                    connManager.routeComplete(conn, route, context);
+                }
+            }
+        } finally {
+            for (HttpClientConnection conn : opened) {
+                connManager.releaseConnection(
+                        conn, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private HttpClientConnection leaseConnection(HttpRoute route)
+            throws IOException {
+        ConnectionRequest req = connManager.requestConnection(route, null);
+        try {
+            return req.get(connectTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not lease connection", e.getCause());
+        }
+    }
+
+    private static HttpRoute routeFor(String uri) {
+        URI u = URI.create(uri);
+        HttpHost host = URIUtils.extractHost(u);
+        if (host == null) {
+            throw new IllegalArgumentException("No host in URI " + uri);
+        }
+        if (host.getPort() <= 0) {
+            try {
+                int port = DefaultSchemePortResolver.INSTANCE.resolve(host);
+                host = new HttpHost(
+                        host.getHostName(), port, host.getSchemeName());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return new HttpRoute(host, null, "https".equals(host.getSchemeName()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.httpClient.close();
+        } finally {
+            try {
+                synchronized (this) {
+                    if (this.asyncClient != null) {
+                        this.asyncClient.close();
+                    }
+                }
+            } finally {
+                try {
+                    if (this.transport != null) {
+                        this.transport.close();
+                    }
+                } finally {
+                    synchronized (this) {
+                        if (this.unixTransport != null) {
+                            this.unixTransport.close();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers how long the calling thread last waited to lease a
+     * connection.
+     */
+    private static class TimedConnectionManager
+            extends PoolingHttpClientConnectionManager {
+        private final ThreadLocal<long[]> leaseTime =
+                ThreadLocal.withInitial(() -> new long[1]);
+
+        TimedConnectionManager(long timeToLive, TimeUnit unit) {
+            super(timeToLive, unit);
+        }
+
+        void resetLeaseTime() {
+            leaseTime.get()[0] = 0;
+        }
+
+        long lastLeaseTime() {
+            return leaseTime.get()[0];
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(
+                HttpRoute route, Object state) {
+            ConnectionRequest req = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException,
+                        ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return req.get(timeout, unit);
+                    } finally {
+                        leaseTime.get()[0] = System.nanoTime() - start;
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return req.cancel();
+                }
+            };
+        }
+    }
+
+    private static class CachedMetadata {
+        final ModelMetadata metadata;
+        final long expiresAt;
+
+        CachedMetadata(ModelMetadata metadata, long expiresAt) {
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class Builder {
+        private int maxTotal = 64;
+        private int maxPerRoute = 16;
+        private int connectTimeout = 10_000;
+        private int socketTimeout = 0;
+        private int poolTimeout = 0;
+        private boolean tcpNoDelay = true;
+        private boolean soKeepAlive = true;
+        private int sendBufferSize = 0;
+        private int receiveBufferSize = 0;
+        private long keepAliveMillis = 60_000;
+        private long maxIdleMillis = 60_000;
+        private long timeToLiveMillis = -1;
+        private int validateAfterInactivity = 2_000;
+        private int maxInFlightPerEndpoint = 256;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private int builderPoolSize =
+                2 * Runtime.getRuntime().availableProcessors();
+        private int maxPooledBuilderBytes = 64 << 20;
+        private boolean directResponseBuffers = false;
+        private long metadataTtlNanos = TimeUnit.MINUTES.toNanos(5);
+        private boolean validateRequests = false;
+        private boolean float16Transport = false;
+        private MetricsListener metrics = MetricsListener.NONE;
+        private boolean singleFlight = false;
+        private boolean chunkedRequests = false;
+        private Transport transport;
+        private final List<String> preConnect = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /** Maximum number of pooled connections across all endpoints. */
+        public Builder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        /** Maximum number of pooled connections to a single endpoint. */
+        public Builder maxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        public Builder connectTimeout(int millis) {
+            this.connectTimeout = millis;
+            return this;
+        }
+
+        /** Socket read timeout. Zero (the default) waits forever. */
+        public Builder socketTimeout(int millis) {
+            this.socketTimeout = millis;
+            return this;
+        }
+
+        /** How long to wait for a free pooled connection. Zero waits forever. */
+        public Builder poolTimeout(int millis) {
+            this.poolTimeout = millis;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder soKeepAlive(boolean soKeepAlive) {
+            this.soKeepAlive = soKeepAlive;
+            return this;
+        }
+
+        /** SO_SNDBUF for new sockets. Zero leaves the system default. */
+        public Builder sendBufferSize(int bytes) {
+            this.sendBufferSize = bytes;
+            return this;
+        }
+
+        /** SO_RCVBUF for new sockets. Zero leaves the system default. */
+        public Builder receiveBufferSize(int bytes) {
+            this.receiveBufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * How long to keep an idle connection alive when the server doesn't
+         * say (via the Keep-Alive header).
+         */
+        public Builder keepAlive(long duration, TimeUnit unit) {
+            this.keepAliveMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Connections idle for longer than this are closed by a background
+         * thread.
+         */
+        public Builder evictIdleConnections(long duration, TimeUnit unit) {
+            this.maxIdleMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /** Total lifetime of a connection. Negative (the default) is forever. */
+        public Builder timeToLive(long duration, TimeUnit unit) {
+            this.timeToLiveMillis = duration < 0 ? -1 : unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Pooled connections idle for longer than this are checked for
+         * staleness before reuse.
+         */
+        public Builder validateAfterInactivity(int millis) {
+            this.validateAfterInactivity = millis;
+            return this;
+        }
+
+        /**
+         * Maximum number of outstanding asynchronous requests to a single
+         * endpoint. Further requests wait in a queue without holding a
+         * thread.
+         */
+        public Builder maxInFlightPerEndpoint(int maxInFlight) {
+            this.maxInFlightPerEndpoint = maxInFlight;
+            return this;
+        }
+
+        /** Number of I/O threads serving asynchronous requests. */
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /** How many idle request encoders to keep warm. */
+        public Builder builderPoolSize(int builders) {
+            this.builderPoolSize = builders;
+            return this;
+        }
+
+        /**
+         * Encoders whose buffer has grown beyond this size are released
+         * after use rather than pooled.
+         */
+        public Builder maxPooledBuilderBytes(int bytes) {
+            this.maxPooledBuilderBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Read responses into direct (off-heap) buffers. Output tensors are
+         * views into the response buffer, so they live off-heap too.
+         */
+        public Builder directResponseBuffers(boolean direct) {
+            this.directResponseBuffers = direct;
+            return this;
+        }
+
+        /** How long fetched model metadata is reused before refetching. */
+        public Builder metadataTtl(long duration, TimeUnit unit) {
+            this.metadataTtlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Check every request against the endpoint's (cached) metadata
+         * before sending it. Invalid requests fail with an
+         * IllegalArgumentException and never reach the server.
+         */
+        public Builder validateRequests(boolean validate) {
+            this.validateRequests = validate;
+            return this;
+        }
+
+        /**
+         * Send Float32 and Float64 inputs as Float16, and hand back Float16
+         * outputs as Float32. This halves (or quarters) float payloads on
+         * the wire at the cost of precision: halves carry about three
+         * significant digits, and values of magnitude 65520 or more (past
+         * the largest half, 65504) are sent as infinity. The model server
+         * must accept Float16 inputs.
+         */
+        public Builder float16Transport(boolean float16) {
+            this.float16Transport = float16;
+            return this;
+        }
+
+        /**
+         * Send request bodies with chunked transfer encoding instead of a
+         * Content-Length header, for servers or proxies in front of them
+         * that prefer it. Off by default.
+         */
+        public Builder chunkedRequests(boolean chunked) {
+            this.chunkedRequests = chunked;
+            return this;
+        }
+
+        /**
+         * Sends requests through the given transport, e.g. an
+         * {@link Http2Transport}, instead of the built-in pooled HTTP/1.1
+         * one, whose connection settings then don't apply. It isn't used
+         * for {@code unix://} URIs. The client closes it when closed. Time
+         * to first byte is reported for the whole exchange, and transfer
+         * time as zero.
+         */
+        public Builder transport(Transport transport) {
+            this.transport = Objects.requireNonNull(transport);
+            return this;
+        }
+
+        /**
+         * Where to report per-phase timings and sizes of inference
+         * requests, e.g. an {@link InMemoryMetrics}. By default nothing is
+         * recorded.
+         */
+        public Builder metrics(MetricsListener metrics) {
+            this.metrics = Objects.requireNonNull(metrics);
+            return this;
+        }
+
+        /**
+         * Lets an inference whose encoded request is byte-for-byte the same
+         * as one already in flight to the same endpoint wait for that one's
+         * response instead of sending its own. The callers get the same
+         * output tensors, so a burst of identical calls costs the model a
+         * single request. Only for deterministic models. Off by default.
+         */
+        public Builder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        /** An endpoint to open a connection to when the client is built. */
+        public Builder preConnect(String uri) {
+            this.preConnect.add(uri);
+            return this;
+        }
+
+        /**
+         * @throws UncheckedIOException If a {@link #preConnect} endpoint
+         * cannot be reached.
+         */
+        public GraphPipeClient build() {
+            GraphPipeClient client = new GraphPipeClient(this);
+            for (String uri : this.preConnect) {
+                try {
+                    client.connect(uri);
+                } catch (IOException e) {
+                    try {
+                        client.close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return client;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+/**
+ * Conversions between float and IEEE 754 binary16 ("half"), which Java has
+ * no type for. Halves are carried around as their raw bits in a short.
+ */
+class HalfFloats {
+    /**
+     * Rounds to the nearest half, ties to even. Values too large for a half
+     * become infinity; values too small become (signed) zero.
+     */
+    static short fromFloat(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xff;
+        int mant = bits & 0x7fffff;
+
+        if (exp == 0xff) {
+            // Infinity stays infinity; NaN stays NaN (keep it quiet).
+            return (short)(sign | 0x7c00 | (mant != 0 ? 0x200 | mant >>> 13 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1f) {
+            return (short)(sign | 0x7c00);
+        }
+        if (e <= 0) {
+            // Subnormal half (or zero).
+            if (e < -10) {
+                return (short)sign;
+            }
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int half = mant >>> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int mid = 1 << (shift - 1);
+            if (rem > mid || (rem == mid && (half & 1) != 0)) {
+                half++;
+            }
+            return (short)(sign | half);
+        }
+        int half = (e << 10) | (mant >>> 13);
+        int rem = mant & 0x1fff;
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+            // May carry into the exponent, which is still correct (up to
+            // and including rounding to infinity).
+            half++;
+        }
+        return (short)(sign | half);
+    }
+
+    /**
+     * Like {@link #fromFloat}, but rounded once, straight from the double.
+     * Rounding to float first and then to half can land on the wrong half
+     * when the float rounding makes a tie out of something that wasn't.
+     */
+    static short fromDouble(double d) {
+        float f = (float)d;
+        if (f != d && !Double.isNaN(d)) {
+            // Round to odd: take the float next to d toward zero and set its
+            // last bit if that dropped anything. Floats carry enough bits
+            // beyond a half's that this then rounds to half correctly.
+            int bits = Float.floatToRawIntBits(f);
+            if (Math.abs((double)f) > Math.abs(d)) {
+                bits--;
+            }
+            f = Float.intBitsToFloat(bits | 1);
+        }
+        return fromFloat(f);
+    }
+
+    /** Exact: every half is representable as a float. */
+    static float toFloat(short h) {
+        int bits = h & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1f;
+        int mant = bits & 0x3ff;
+
+        if (exp == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        }
+        if (exp == 0) {
+            float v = mant * 0x1p-24f;
+            return sign != 0 ? -v : v;
+        }
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+}
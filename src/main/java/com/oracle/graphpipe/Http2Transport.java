@@ -0,0 +1,231 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http.nio.support.BasicResponseConsumer;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Transport} that speaks HTTP/2, so any number of concurrent
+ * requests to an endpoint share one connection as separate streams instead
+ * of each holding a connection of its own. {@code http://} URIs use
+ * cleartext HTTP/2 with prior knowledge (h2c), so the server must accept
+ * it; {@code https://} URIs negotiate HTTP/2 with ALPN, which needs a JDK
+ * that supports it.
+ *
+ * Built on Apache HttpClient 5, an optional dependency of this library.
+ */
+public class Http2Transport implements Transport {
+    private final CloseableHttpAsyncClient client;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @SuppressWarnings("deprecation")
+    private Http2Transport(Builder b) {
+        IOReactorConfig.Builder io = IOReactorConfig.custom()
+                .setTcpNoDelay(true)
+                .setSoTimeout(Timeout.ofMilliseconds(b.socketTimeout));
+        if (b.ioThreads > 0) {
+            io.setIoThreadCount(b.ioThreads);
+        }
+        this.client = H2AsyncClientBuilder.create()
+                .setIOReactorConfig(io.build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // The HTTP/2 client has no connection manager to
+                        // take this from instead.
+                        .setConnectTimeout(
+                                Timeout.ofMilliseconds(b.connectTimeout))
+                        .setResponseTimeout(
+                                Timeout.ofMilliseconds(b.socketTimeout))
+                        .build())
+                .disableAutomaticRetries()
+                .build();
+        this.client.start();
+    }
+
+    @Override
+    public ByteBuffer exchange(String uri, ByteBuffer request)
+            throws IOException {
+        try {
+            return exchangeAsync(uri, request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> exchangeAsync(
+            String uri, ByteBuffer request) {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        Future<Message<HttpResponse, byte[]>> f = client.execute(
+                AsyncRequestBuilder.post(uri)
+                        .setEntity(new BufferProducer(request))
+                        .build(),
+                new BasicResponseConsumer<>(new BasicAsyncEntityConsumer()),
+                new FutureCallback<Message<HttpResponse, byte[]>>() {
+                    @Override
+                    public void completed(Message<HttpResponse, byte[]> m) {
+                        int status = m.getHead().getCode();
+                        byte[] body = m.getBody() != null
+                                ? m.getBody() : new byte[0];
+                        if (status != 200) {
+                            result.completeExceptionally(new IOException(
+                                    "GraphPipe server returned " + status
+                                    + ": " + new String(
+                                            body, StandardCharsets.UTF_8)));
+                        } else {
+                            result.complete(ByteBuffer.wrap(body));
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel(false);
+                    }
+                });
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                f.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    // Writes the request straight from the caller's buffer.
+    private static final class BufferProducer implements AsyncEntityProducer {
+        private final ByteBuffer content;
+        private volatile ByteBuffer producing;
+
+        BufferProducer(ByteBuffer content) {
+            this.content = content.duplicate();
+            this.producing = content.duplicate();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public String getContentType() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.remaining();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return false;
+        }
+
+        @Override
+        public Set<String> getTrailerNames() {
+            return null;
+        }
+
+        @Override
+        public int available() {
+            return producing.remaining();
+        }
+
+        @Override
+        public void produce(DataStreamChannel channel) throws IOException {
+            ByteBuffer bb = producing;
+            channel.write(bb);
+            if (!bb.hasRemaining()) {
+                channel.endStream();
+            }
+        }
+
+        @Override
+        public void failed(Exception cause) {
+        }
+
+        @Override
+        public void releaseResources() {
+            // Start over if sent again.
+            producing = content.duplicate();
+        }
+    }
+
+    public static class Builder {
+        private int connectTimeout = 10_000;
+        private int socketTimeout = 0;
+        private int ioThreads = 0;
+
+        private Builder() {
+        }
+
+        public Builder connectTimeout(int millis) {
+            this.connectTimeout = millis;
+            return this;
+        }
+
+        /**
+         * How long to wait for a response. Zero (the default) waits
+         * forever.
+         */
+        public Builder socketTimeout(int millis) {
+            this.socketTimeout = millis;
+            return this;
+        }
+
+        /** Defaults to one per CPU. */
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Http2Transport build() {
+            return new Http2Transport(this);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.util.ArrayDeque;
+
+/**
+ * Caps the number of outstanding requests to one endpoint without blocking
+ * the caller. Tasks over the limit are queued and started, in order, as
+ * earlier ones release their permit.
+ */
+class InFlightLimiter {
+    private final int maxInFlight;
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+    // Permits returned but not yet handed on, and whether some thread is
+    // handing them on. Tasks often release straight away (cancelled while
+    // queued, or failed to send), so handing on in a loop rather than from
+    // inside release() keeps a long queue from overflowing the stack.
+    private int released;
+    private boolean draining;
+
+    InFlightLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "maxInFlight must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Runs the task now if a permit is free, otherwise once one is released.
+     * The task must eventually call {@link #release()} exactly once, and
+     * must not throw.
+     */
+    void submit(Runnable task) {
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                waiting.add(task);
+                return;
+            }
+            inFlight++;
+        }
+        task.run();
+    }
+
+    /**
+     * Returns a permit, handing it straight to the oldest waiting task if
+     * there is one. The task runs on this thread, or on the one already
+     * handing permits on.
+     */
+    void release() {
+        synchronized (this) {
+            released++;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (released == 0) {
+                        draining = false;
+                        return;
+                    }
+                    released--;
+                    next = waiting.poll();
+                    if (next == null) {
+                        inFlight--;
+                        continue;
+                    }
+                }
+                next.run();
+            }
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                draining = false;
+            }
+            throw e;
+        }
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int waiting() {
+        return waiting.size();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsListener} that keeps counters and latency histograms per
+ * endpoint, for a monitoring system to read (or {@link #toString()} to
+ * print) whenever it likes. Nothing is ever reset.
+ */
+public class InMemoryMetrics implements MetricsListener {
+    private final ConcurrentMap<String, Endpoint> endpoints =
+            new ConcurrentHashMap<>();
+
+    /** The metrics of every endpoint requested so far, by URI. */
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(endpoints);
+    }
+
+    /** The endpoint's metrics, or null if it has never been requested. */
+    public Endpoint getEndpoint(String uri) {
+        return endpoints.get(uri);
+    }
+
+    private Endpoint endpoint(String uri) {
+        return endpoints.computeIfAbsent(uri, k -> new Endpoint());
+    }
+
+    @Override
+    public void onEncode(String uri, long nanos, long requestBytes) {
+        Endpoint e = endpoint(uri);
+        e.requests.increment();
+        e.requestBytes.add(requestBytes);
+        e.encodeTime.record(nanos);
+    }
+
+    @Override
+    public void onPoolWait(String uri, long nanos) {
+        endpoint(uri).poolWaitTime.record(nanos);
+    }
+
+    @Override
+    public void onResponse(String uri, long firstByteNanos,
+                           long transferNanos, long responseBytes) {
+        Endpoint e = endpoint(uri);
+        e.responseBytes.add(responseBytes);
+        e.timeToFirstByte.record(firstByteNanos);
+        e.transferTime.record(transferNanos);
+    }
+
+    @Override
+    public void onShared(String uri) {
+        endpoint(uri).shared.increment();
+    }
+
+    @Override
+    public void onDecode(String uri, long nanos) {
+        endpoint(uri).decodeTime.record(nanos);
+    }
+
+    @Override
+    public void onError(String uri, Throwable error) {
+        endpoint(uri).errors.increment();
+    }
+
+    /**
+     * One line per endpoint and metric, e.g.
+     * {@code http://host/ time_to_first_byte p50=1.2ms p99=3.4ms max=5.6ms}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Endpoint> entry
+                : new TreeMap<>(endpoints).entrySet()) {
+            String uri = entry.getKey();
+            Endpoint e = entry.getValue();
+            sb.append(String.format("%s requests=%d errors=%d shared=%d"
+                            + " request_bytes=%d response_bytes=%d%n",
+                    uri, e.getRequests(), e.getErrors(), e.getShared(),
+                    e.getRequestBytes(), e.getResponseBytes()));
+            append(sb, uri, "encode", e.encodeTime);
+            append(sb, uri, "pool_wait", e.poolWaitTime);
+            append(sb, uri, "time_to_first_byte", e.timeToFirstByte);
+            append(sb, uri, "transfer", e.transferTime);
+            append(sb, uri, "decode", e.decodeTime);
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String uri, String name,
+                               LatencyHistogram h) {
+        sb.append(String.format(
+                "%s %s count=%d p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms%n",
+                uri, name, h.getCount(), h.getPercentile(50) / 1e6,
+                h.getPercentile(99) / 1e6, h.getPercentile(99.9) / 1e6,
+                h.getMax() / 1e6));
+    }
+
+    /** Metrics of a single endpoint. Histograms are in nanoseconds. */
+    public static class Endpoint {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder shared = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LatencyHistogram encodeTime = new LatencyHistogram();
+        private final LatencyHistogram poolWaitTime = new LatencyHistogram();
+        private final LatencyHistogram timeToFirstByte =
+                new LatencyHistogram();
+        private final LatencyHistogram transferTime = new LatencyHistogram();
+        private final LatencyHistogram decodeTime = new LatencyHistogram();
+
+        private Endpoint() {
+        }
+
+        /** Requests encoded, whether or not they succeeded. */
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /** Requests that shared another's response instead of being sent. */
+        public long getShared() {
+            return shared.sum();
+        }
+
+        public long getRequestBytes() {
+            return requestBytes.sum();
+        }
+
+        public long getResponseBytes() {
+            return responseBytes.sum();
+        }
+
+        public LatencyHistogram getEncodeTime() {
+            return encodeTime;
+        }
+
+        public LatencyHistogram getPoolWaitTime() {
+            return poolWaitTime;
+        }
+
+        public LatencyHistogram getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        public LatencyHistogram getTransferTime() {
+            return transferTime;
+        }
+
+        public LatencyHistogram getDecodeTime() {
+            return decodeTime;
+        }
+    }
+}
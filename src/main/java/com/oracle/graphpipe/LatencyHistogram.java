@@ -0,0 +1,154 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds.
+ *
+ * Values below 128 are counted exactly. Larger values fall into one of 64
+ * buckets per power of two, so a percentile is never more than about 1.6%
+ * above the true value. Recording never allocates or blocks.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 2 * SUB_BUCKETS
+            + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int)value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    // The largest value that lands in the given bucket.
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    private void record(long nanos, long n) {
+        long v = Math.max(0, nanos);
+        counts.addAndGet(index(v), n);
+        count.addAndGet(n);
+        sum.addAndGet(v * n);
+        max.accumulate(v);
+    }
+
+    /**
+     * Records a latency measured by a caller that waits for each response
+     * before sending the next request, and so would have sent a request
+     * every {@code expectedIntervalNanos} had the server kept up. A latency
+     * of several intervals hid the requests that would have been sent in
+     * the meantime; each of those is recorded too, with the latency it
+     * would have seen.
+     */
+    public void recordCorrected(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missed = nanos - expectedIntervalNanos;
+             missed >= expectedIntervalNanos;
+             missed -= expectedIntervalNanos) {
+            record(missed);
+        }
+    }
+
+    /**
+     * A copy of this histogram as if every value had been recorded with
+     * {@link #recordCorrected}.
+     */
+    public LatencyHistogram corrected(long expectedIntervalNanos) {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = counts.get(i);
+            if (n == 0) {
+                continue;
+            }
+            long v = Math.min(highestValue(i), max.get());
+            h.record(v, n);
+            if (expectedIntervalNanos <= 0) {
+                continue;
+            }
+            for (long missed = v - expectedIntervalNanos;
+                 missed >= expectedIntervalNanos;
+                 missed -= expectedIntervalNanos) {
+                h.record(missed, n);
+            }
+        }
+        return h;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulate(other.max.get());
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)sum.get() / n;
+    }
+
+    /**
+     * The latency that {@code percentile} percent of the values are at or
+     * below, e.g. {@code getPercentile(99.9)}. Returns 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    "Percentile out of range: " + percentile);
+        }
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,731 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads calls over several replicas of the same model.
+ *
+ * Each call goes to the replica with the fewest outstanding requests, or
+ * (with {@link Strategy#POWER_OF_TWO_CHOICES}) to the less busy of two
+ * replicas picked at random. Counting outstanding requests rather than
+ * taking turns keeps the load even when some requests are much more
+ * expensive than others: a replica stuck on a large request simply gets
+ * fewer new ones.
+ *
+ * A replica is ejected after {@link Builder#failureThreshold} consecutive
+ * failures, or when both its average and its latest latency exceed
+ * {@link Builder#slowRatio} times the median average of the others. Once
+ * its ejection time is up it is sent a metadata request as a probe; if that
+ * succeeds it is readmitted, and if not it stays out twice as long (up to
+ * {@link Builder#maxEjectionTime}) before the next probe. At most
+ * {@link Builder#maxEjectedFraction} of the replicas are ejected at once,
+ * and if every replica is out the calls are spread over all of them anyway.
+ *
+ * Hedging ({@link Builder#hedgeDelay}) sends a second copy of a call that
+ * is still unanswered after a delay to another replica, reusing the
+ * already-encoded request, and takes whichever answer comes first; the
+ * other exchange is cancelled. The delay can follow a percentile of recent
+ * latencies ({@link Builder#hedgePercentile}), and a budget caps hedges at
+ * a share of all calls, so a slow cluster is not swamped with duplicates.
+ *
+ * Failed calls are not retried, and are not hedged.
+ */
+public class LoadBalancedClient implements Closeable {
+    public enum Strategy {
+        LEAST_OUTSTANDING,
+        POWER_OF_TWO_CHOICES
+    }
+
+    // Weight of the newest latency in a replica's average.
+    private static final double EWMA_ALPHA = 0.1;
+    // Latencies a replica must have served before it can be called slow.
+    private static final int MIN_SAMPLES = 10;
+    // Latencies needed before hedgePercentile replaces hedgeDelay, and how
+    // many make up the window it is taken from.
+    private static final int MIN_HEDGE_SAMPLES = 100;
+    private static final int HEDGE_WINDOW = 10_000;
+    // The most unused hedges the budget saves up.
+    private static final double MAX_HEDGE_TOKENS = 10;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final GraphPipeClient client;
+    private final List<Replica> replicas;
+    private final Strategy strategy;
+    private final int failureThreshold;
+    private final double slowRatio;
+    private final double maxEjectedFraction;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final long hedgeDelayNanos;
+    private final double hedgePercentile;
+    private final HedgeBudget hedgeBudget;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    // Latencies of recent calls; once full, it becomes the previous window.
+    private final AtomicReference<LatencyHistogram> recentLatencies =
+            new AtomicReference<>(new LatencyHistogram());
+    private volatile LatencyHistogram previousLatencies;
+    private final ScheduledExecutorService scheduler;
+
+    private LoadBalancedClient(Builder b) {
+        if (b.replicas.isEmpty()) {
+            throw new IllegalArgumentException("No replicas given");
+        }
+        List<Replica> replicas = new ArrayList<>(b.replicas.size());
+        for (String uri : b.replicas) {
+            replicas.add(new Replica(uri));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.client = b.client != null ? b.client : GraphPipeClient.getDefault();
+        this.strategy = b.strategy;
+        this.failureThreshold = b.failureThreshold;
+        this.slowRatio = b.slowRatio;
+        this.maxEjectedFraction = b.maxEjectedFraction;
+        this.baseEjectionNanos = b.baseEjectionNanos;
+        this.maxEjectionNanos = Math.max(b.baseEjectionNanos, b.maxEjectionNanos);
+        this.hedgeDelayNanos = b.hedgeDelayNanos;
+        this.hedgePercentile = b.hedgePercentile;
+        this.hedgeBudget = new HedgeBudget(b.hedgeBudget);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "graphpipe-balancer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::probe,
+                b.probeIntervalNanos, b.probeIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /** The replicas, in the order they were given. */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /** Number of hedged copies sent so far. */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /** Number of calls answered by their hedged copy. */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    public NativeTensor execute(NativeTensor input) throws IOException {
+        return executeMulti("", Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList()).get(0);
+    }
+
+    public NativeTensor execute(
+            NativeTensor input, String inputName, String outputName)
+            throws IOException {
+        return executeMulti("", Collections.singletonList(input),
+                Collections.singletonList(inputName),
+                Collections.singletonList(outputName)).get(0);
+    }
+
+    public List<NativeTensor> executeMulti(
+            String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames)
+            throws IOException {
+        if (hedgeDelayNanos > 0) {
+            try {
+                return executeMultiAsync(
+                        config, inputs, inputNames, outputNames).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        Replica r = choose(null);
+        r.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            List<NativeTensor> outputs = client.executeMulti(
+                    config, r.uri, inputs, inputNames, outputNames);
+            succeeded(r, System.nanoTime() - start);
+            return outputs;
+        } catch (IOException e) {
+            failed(r);
+            throw e;
+        } finally {
+            r.outstanding.decrementAndGet();
+        }
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(NativeTensor input) {
+        return executeMultiAsync("", Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList())
+                .thenApply(outputs -> outputs.get(0));
+    }
+
+    public CompletableFuture<List<NativeTensor>> executeMultiAsync(
+            String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        if (hedgeDelayNanos > 0) {
+            return executeHedged(config, inputs, inputNames, outputNames);
+        }
+        Replica r = choose(null);
+        r.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<List<NativeTensor>> result = client.executeMultiAsync(
+                config, r.uri, inputs, inputNames, outputNames);
+        result.whenComplete((outputs, e) -> {
+            r.outstanding.decrementAndGet();
+            if (e == null) {
+                succeeded(r, System.nanoTime() - start);
+            } else if (isReplicaFailure(e)) {
+                failed(r);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<List<NativeTensor>> executeHedged(
+            String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        hedgeBudget.deposit();
+        Replica first = choose(null);
+        CompletableFuture<List<NativeTensor>> result = new CompletableFuture<>();
+        client.encodeAsync(first.uri, config, inputs, inputNames, outputNames)
+                .whenComplete((request, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(
+                                e instanceof CompletionException
+                                        ? e.getCause() : e);
+                    } else {
+                        new HedgedCall(result, request).start(first);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * One call sent to a replica, and maybe hedged to another. The first
+     * answer completes the call; it fails only once every copy has failed.
+     */
+    private class HedgedCall {
+        private final CompletableFuture<List<NativeTensor>> result;
+        private final byte[] request;
+        // Guarded by this.
+        private final List<CompletableFuture<List<NativeTensor>>> attempts =
+                new ArrayList<>(2);
+        private int pending;
+
+        HedgedCall(CompletableFuture<List<NativeTensor>> result,
+                   byte[] request) {
+            this.result = result;
+            this.request = request;
+        }
+
+        void start(Replica first) {
+            send(first, false);
+            ScheduledFuture<?> timer;
+            try {
+                timer = scheduler.schedule(() -> hedge(first),
+                        hedgeDelay(), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed: just wait for the first copy.
+                return;
+            }
+            result.whenComplete((outputs, e) -> {
+                timer.cancel(false);
+                List<CompletableFuture<List<NativeTensor>>> losers;
+                synchronized (this) {
+                    losers = new ArrayList<>(attempts);
+                }
+                for (CompletableFuture<List<NativeTensor>> f : losers) {
+                    f.cancel(false);
+                }
+            });
+        }
+
+        private void hedge(Replica first) {
+            if (result.isDone()) {
+                return;
+            }
+            Replica second = choose(first);
+            if (second == null || !hedgeBudget.withdraw()) {
+                return;
+            }
+            hedges.incrementAndGet();
+            send(second, true);
+        }
+
+        private void send(Replica r, boolean isHedge) {
+            CompletableFuture<List<NativeTensor>> f = attempt(r, request);
+            synchronized (this) {
+                attempts.add(f);
+                pending++;
+            }
+            if (result.isDone()) {
+                // Answered while this copy was being sent.
+                f.cancel(false);
+            }
+            f.whenComplete((outputs, e) -> {
+                if (e == null) {
+                    if (result.complete(outputs) && isHedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return;
+                }
+                boolean last;
+                synchronized (this) {
+                    last = --pending == 0;
+                }
+                // A failure before the hedge is due ends the call too:
+                // failed calls are not retried.
+                if (last) {
+                    result.completeExceptionally(
+                            e instanceof CompletionException
+                                    ? e.getCause() : e);
+                }
+            });
+        }
+    }
+
+    private CompletableFuture<List<NativeTensor>> attempt(
+            Replica r, byte[] request) {
+        r.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<List<NativeTensor>> f;
+        try {
+            f = client.sendAsync(r.uri, request);
+        } catch (RuntimeException e) {
+            r.outstanding.decrementAndGet();
+            f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+        f.whenComplete((outputs, e) -> {
+            r.outstanding.decrementAndGet();
+            if (e == null) {
+                succeeded(r, System.nanoTime() - start);
+            } else if (isReplicaFailure(e)) {
+                failed(r);
+            }
+        });
+        return f;
+    }
+
+    private long hedgeDelay() {
+        if (hedgePercentile > 0) {
+            LatencyHistogram recent = recentLatencies.get();
+            LatencyHistogram h = recent.getCount() >= MIN_HEDGE_SAMPLES
+                    ? recent : previousLatencies;
+            if (h != null) {
+                return Math.max(1, h.getPercentile(hedgePercentile));
+            }
+        }
+        return hedgeDelayNanos;
+    }
+
+    private void recordLatency(long nanos) {
+        LatencyHistogram recent = recentLatencies.get();
+        recent.record(nanos);
+        if (recent.getCount() >= HEDGE_WINDOW && recentLatencies
+                .compareAndSet(recent, new LatencyHistogram())) {
+            previousLatencies = recent;
+        }
+    }
+
+    // Local errors (bad inputs, cancellation) say nothing about the replica.
+    private static boolean isReplicaFailure(Throwable e) {
+        if (e instanceof CompletionException
+                || e instanceof ExecutionException) {
+            e = e.getCause();
+        }
+        return e instanceof IOException;
+    }
+
+    // Picks a replica other than {@code except}, or returns null if there is
+    // no other.
+    Replica choose(Replica except) {
+        List<Replica> healthy = new ArrayList<>(replicas.size());
+        for (Replica r : replicas) {
+            if (r != except && !r.isEjected()) {
+                healthy.add(r);
+            }
+        }
+        if (healthy.isEmpty()) {
+            for (Replica r : replicas) {
+                if (r != except) {
+                    healthy.add(r);
+                }
+            }
+        }
+        int n = healthy.size();
+        if (n == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (n == 1) {
+            return healthy.get(0);
+        }
+        if (strategy == Strategy.POWER_OF_TWO_CHOICES) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n - 1);
+            if (j >= i) {
+                j++;
+            }
+            return lessLoaded(healthy.get(i), healthy.get(j));
+        }
+        // Start the scan at a random replica so ties are spread out.
+        int offset = random.nextInt(n);
+        Replica best = healthy.get(offset);
+        for (int k = 1; k < n; k++) {
+            best = lessLoaded(best, healthy.get((offset + k) % n));
+        }
+        return best;
+    }
+
+    // Ties go to the first, which the callers pick at random.
+    private static Replica lessLoaded(Replica a, Replica b) {
+        return b.outstanding.get() < a.outstanding.get() ? b : a;
+    }
+
+    private void succeeded(Replica r, long nanos) {
+        if (hedgePercentile > 0) {
+            recordLatency(nanos);
+        }
+        r.consecutiveFailures.set(0);
+        r.recordLatency(nanos);
+        if (slowRatio > 0
+                && r.isSlower(slowRatio, nanos, medianLatency(r))) {
+            eject(r);
+        }
+    }
+
+    private void failed(Replica r) {
+        if (r.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            eject(r);
+        }
+    }
+
+    // The median average latency of the other admitted replicas, or 0 if
+    // none has enough samples yet.
+    private double medianLatency(Replica except) {
+        double[] latencies = new double[replicas.size()];
+        int n = 0;
+        for (Replica r : replicas) {
+            if (r != except && !r.isEjected()
+                    && r.getSamples() >= MIN_SAMPLES) {
+                latencies[n++] = r.getLatencyNanos();
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, n);
+        return latencies[n / 2];
+    }
+
+    private synchronized void eject(Replica r) {
+        if (r.isEjected()) {
+            return;
+        }
+        int ejected = 0;
+        for (Replica other : replicas) {
+            if (other.isEjected()) {
+                ejected++;
+            }
+        }
+        if (ejected + 1 > maxEjectedFraction * replicas.size()) {
+            return;
+        }
+        r.eject(System.nanoTime(), baseEjectionNanos);
+    }
+
+    private void probe() {
+        long now = System.nanoTime();
+        for (Replica r : replicas) {
+            if (!r.startProbe(now)) {
+                continue;
+            }
+            client.invalidateMetadata(r.uri);
+            client.getMetadataAsync(r.uri).whenComplete((md, e) -> {
+                if (e == null) {
+                    r.readmit();
+                } else {
+                    r.extendEjection(System.nanoTime(), maxEjectionNanos);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops probing and hedging. The underlying {@link GraphPipeClient} is
+     * not closed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    // Every call earns a fraction of a hedge; each hedge spends a whole one.
+    private static class HedgeBudget {
+        private final double ratio;
+        private double tokens;
+
+        HedgeBudget(double ratio) {
+            this.ratio = ratio;
+        }
+
+        synchronized void deposit() {
+            tokens = Math.min(MAX_HEDGE_TOKENS, tokens + ratio);
+        }
+
+        synchronized boolean withdraw() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    /** A replica and what the balancer currently knows about it. */
+    public static class Replica {
+        private final String uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private double latencyNanos;
+        private long samples;
+        // Guarded by this. ejectedUntil is only meaningful while ejected.
+        private boolean ejected;
+        private boolean probing;
+        private long ejectedUntil;
+        private long ejectionNanos;
+
+        private Replica(String uri) {
+            this.uri = uri;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public synchronized boolean isEjected() {
+            return ejected;
+        }
+
+        /** Moving average of recent call latencies. */
+        public synchronized double getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        synchronized long getSamples() {
+            return samples;
+        }
+
+        synchronized void recordLatency(long nanos) {
+            latencyNanos = samples == 0
+                    ? nanos
+                    : latencyNanos + EWMA_ALPHA * (nanos - latencyNanos);
+            samples++;
+        }
+
+        // Both the average and the latest latency must be slow, so one
+        // early outlier (a cold connection, say) doesn't get a fast
+        // replica ejected while its average catches up.
+        synchronized boolean isSlower(
+                double ratio, long lastNanos, double baseline) {
+            return !ejected && samples >= MIN_SAMPLES && baseline > 0
+                    && latencyNanos > ratio * baseline
+                    && lastNanos > ratio * baseline;
+        }
+
+        synchronized void eject(long now, long duration) {
+            ejected = true;
+            ejectionNanos = duration;
+            ejectedUntil = now + duration;
+        }
+
+        // True if the ejection is over and nobody else is probing.
+        synchronized boolean startProbe(long now) {
+            if (!ejected || probing || now - ejectedUntil < 0) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        synchronized void readmit() {
+            ejected = false;
+            probing = false;
+            samples = 0;
+            latencyNanos = 0;
+            consecutiveFailures.set(0);
+        }
+
+        synchronized void extendEjection(long now, long maxDuration) {
+            probing = false;
+            ejectionNanos = Math.min(ejectionNanos * 2, maxDuration);
+            ejectedUntil = now + ejectionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return uri;
+        }
+    }
+
+    public static class Builder {
+        private final List<String> replicas = new ArrayList<>();
+        private GraphPipeClient client;
+        private Strategy strategy = Strategy.LEAST_OUTSTANDING;
+        private int failureThreshold = 5;
+        private double slowRatio = 0;
+        private double maxEjectedFraction = 0.5;
+        private long baseEjectionNanos = TimeUnit.SECONDS.toNanos(10);
+        private long maxEjectionNanos = TimeUnit.MINUTES.toNanos(5);
+        private long probeIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+        private long hedgeDelayNanos = 0;
+        private double hedgePercentile = 0;
+        private double hedgeBudget = 0.1;
+
+        private Builder() {
+        }
+
+        /** Adds a replica's URI. */
+        public Builder replica(String uri) {
+            this.replicas.add(uri);
+            return this;
+        }
+
+        public Builder replicas(List<String> uris) {
+            this.replicas.addAll(uris);
+            return this;
+        }
+
+        /**
+         * The client to send with. Defaults to
+         * {@link GraphPipeClient#getDefault()}.
+         */
+        public Builder client(GraphPipeClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder strategy(Strategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /** Consecutive failed calls after which a replica is ejected. */
+        public Builder failureThreshold(int failures) {
+            if (failures < 1) {
+                throw new IllegalArgumentException(
+                        "failureThreshold must be positive: " + failures);
+            }
+            this.failureThreshold = failures;
+            return this;
+        }
+
+        /**
+         * Eject a replica whose average latency exceeds this many times the
+         * median of the others. Zero (the default) never ejects for
+         * latency.
+         */
+        public Builder slowRatio(double ratio) {
+            this.slowRatio = ratio;
+            return this;
+        }
+
+        /** The largest share of the replicas that may be ejected at once. */
+        public Builder maxEjectedFraction(double fraction) {
+            this.maxEjectedFraction = fraction;
+            return this;
+        }
+
+        /** How long a replica stays out before it is first probed. */
+        public Builder ejectionTime(long duration, TimeUnit unit) {
+            this.baseEjectionNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /** The longest a replica stays out between failed probes. */
+        public Builder maxEjectionTime(long duration, TimeUnit unit) {
+            this.maxEjectionNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /** How often to look for ejected replicas due for a probe. */
+        public Builder probeInterval(long interval, TimeUnit unit) {
+            this.probeIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Send a copy of any call still unanswered after this long to
+         * another replica. Zero (the default) never hedges.
+         */
+        public Builder hedgeDelay(long delay, TimeUnit unit) {
+            this.hedgeDelayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * Hedge after this percentile (e.g. 95) of recent call latencies
+         * instead of the fixed {@link #hedgeDelay}, which still applies
+         * until enough calls have been seen. Requires a hedgeDelay.
+         */
+        public Builder hedgePercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException(
+                        "Percentile out of range: " + percentile);
+            }
+            this.hedgePercentile = percentile;
+            return this;
+        }
+
+        /**
+         * The most hedged copies to send, as a share of calls (0.1, the
+         * default, allows one hedge per ten calls).
+         */
+        public Builder hedgeBudget(double ratio) {
+            this.hedgeBudget = ratio;
+            return this;
+        }
+
+        public LoadBalancedClient build() {
+            return new LoadBalancedClient(this);
+        }
+    }
+}
@@ -0,0 +1,539 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends inference requests of random tensors to an endpoint and reports
+ * throughput and latency percentiles.
+ *
+ * In closed-loop mode (the default) {@code concurrency} callers each send a
+ * request, wait for the answer and send the next. A slow response holds back
+ * the requests behind it, so the raw latencies understate what a steady
+ * stream of users would see (coordinated omission); the reported latencies
+ * are corrected by assuming each caller meant to send one request per mean
+ * service time.
+ *
+ * In open-loop mode ({@link Builder#rate}) requests are scheduled at a fixed
+ * rate regardless of how the server keeps up, with at most
+ * {@code concurrency} outstanding, and each latency is measured from the
+ * time the request was scheduled rather than sent. That needs no
+ * correction.
+ *
+ * Run {@code java com.oracle.graphpipe.LoadGenerator --help} for the
+ * command-line options.
+ */
+public class LoadGenerator {
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final String uri;
+    private final GraphPipeClient client;
+    private final boolean ownsClient;
+    private final String config;
+    private final List<NativeTensor> inputs;
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+    private final int concurrency;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+
+    private LoadGenerator(Builder b) {
+        if (b.uri == null) {
+            throw new IllegalArgumentException("No uri given");
+        }
+        if (b.inputs.isEmpty()) {
+            throw new IllegalArgumentException("No inputs given");
+        }
+        if (!b.inputNames.isEmpty()
+                && b.inputNames.size() != b.inputs.size()) {
+            throw new IllegalArgumentException(
+                    "Either all inputs are named or none are");
+        }
+        if (b.concurrency < 1) {
+            throw new IllegalArgumentException(
+                    "concurrency must be positive: " + b.concurrency);
+        }
+        this.uri = b.uri;
+        this.ownsClient = b.client == null;
+        this.client = ownsClient
+                ? GraphPipeClient.builder()
+                        .maxTotal(b.concurrency)
+                        .maxPerRoute(b.concurrency)
+                        .maxInFlightPerEndpoint(b.concurrency)
+                        .build()
+                : b.client;
+        this.config = b.config;
+        this.inputs = new ArrayList<>(b.inputs);
+        this.inputNames = new ArrayList<>(b.inputNames);
+        this.outputNames = new ArrayList<>(b.outputNames);
+        this.concurrency = b.concurrency;
+        this.rate = b.rate;
+        this.durationNanos = b.durationNanos;
+        this.warmupNanos = b.warmupNanos;
+    }
+
+    /**
+     * Runs the warmup and then the measured phase, and closes the client if
+     * it was created here.
+     */
+    public Result run() throws IOException, InterruptedException {
+        try {
+            return rate > 0 ? runOpen() : runClosed();
+        } finally {
+            if (ownsClient) {
+                client.close();
+            }
+        }
+    }
+
+    private Result runClosed() throws InterruptedException {
+        LatencyHistogram service = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+
+        Thread[] callers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            callers[i] = new Thread(() -> {
+                long t0;
+                while ((t0 = System.nanoTime()) < end) {
+                    boolean ok = send();
+                    if (t0 < measureFrom) {
+                        continue;
+                    }
+                    if (ok) {
+                        service.record(System.nanoTime() - t0);
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                }
+            }, "graphpipe-load-" + i);
+            callers[i].start();
+        }
+        for (Thread t : callers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - measureFrom;
+        LatencyHistogram latency =
+                service.corrected((long)service.getMean());
+        return new Result(this, service.getCount(), errors.get(), elapsed,
+                latency, service);
+    }
+
+    private boolean send() {
+        try {
+            client.executeMulti(config, uri, inputs, inputNames, outputNames);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private Result runOpen() throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram service = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong lastCompletion = new AtomicLong(Long.MIN_VALUE);
+        Semaphore outstanding = new Semaphore(concurrency);
+        double interval = 1e9 / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+
+        for (long i = 0; ; i++) {
+            long intended = start + (long)(i * interval);
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // Waiting for a free slot delays this request, but its latency
+            // still counts from when it should have been sent.
+            outstanding.acquire();
+            long sent = System.nanoTime();
+            boolean measured = intended >= measureFrom;
+            CompletableFuture<List<NativeTensor>> f = client.executeMultiAsync(
+                    config, uri, inputs, inputNames, outputNames);
+            f.whenComplete((outputs, e) -> {
+                long now = System.nanoTime();
+                outstanding.release();
+                if (!measured) {
+                    return;
+                }
+                lastCompletion.accumulateAndGet(now, Math::max);
+                if (e == null) {
+                    latency.record(now - intended);
+                    service.record(now - sent);
+                } else {
+                    errors.incrementAndGet();
+                }
+            });
+        }
+        outstanding.acquire(concurrency);
+        long elapsed = Math.max(end, lastCompletion.get()) - measureFrom;
+        return new Result(this, latency.getCount(), errors.get(), elapsed,
+                latency, service);
+    }
+
+    static NativeTensor randomTensor(String dtype, long[] shape, Random r) {
+        long count = 1;
+        for (long d : shape) {
+            count *= d;
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Too many elements: " + Arrays.toString(shape));
+        }
+        int n = (int)count;
+        switch (dtype) {
+            case "byte": {
+                byte[] a = new byte[n];
+                r.nextBytes(a);
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            case "short": {
+                short[] a = new short[n];
+                for (int i = 0; i < n; i++) a[i] = (short)r.nextInt();
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            case "int": {
+                int[] a = new int[n];
+                for (int i = 0; i < n; i++) a[i] = r.nextInt();
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            case "long": {
+                long[] a = new long[n];
+                for (int i = 0; i < n; i++) a[i] = r.nextLong();
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            case "float16":
+                return randomTensor("float", shape, r).toFloat16();
+            case "float": {
+                float[] a = new float[n];
+                for (int i = 0; i < n; i++) a[i] = r.nextFloat();
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            case "double": {
+                double[] a = new double[n];
+                for (int i = 0; i < n; i++) a[i] = r.nextDouble();
+                return NativeTensor.fromFlatArray(a, shape);
+            }
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown dtype " + dtype);
+        }
+    }
+
+    public static class Result {
+        private final LoadGenerator generator;
+        private final long requests;
+        private final long errors;
+        private final long elapsedNanos;
+        private final LatencyHistogram latency;
+        private final LatencyHistogram serviceTime;
+
+        private Result(LoadGenerator generator, long requests, long errors,
+                       long elapsedNanos, LatencyHistogram latency,
+                       LatencyHistogram serviceTime) {
+            this.generator = generator;
+            this.requests = requests;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.serviceTime = serviceTime;
+        }
+
+        /** Successful requests in the measured phase. */
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** Successful requests per second. */
+        public double getThroughput() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        /** Latencies corrected for coordinated omission. */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** Time from sending each request to its response, uncorrected. */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (generator.rate > 0) {
+                sb.append(String.format(
+                        "mode      open loop, %.1f req/s, at most %d outstanding%n",
+                        generator.rate, generator.concurrency));
+            } else {
+                sb.append(String.format(
+                        "mode      closed loop, %d callers%n",
+                        generator.concurrency));
+            }
+            sb.append(String.format(
+                    "requests  %d ok, %d errors in %.2f s (%.1f req/s)%n",
+                    requests, errors, elapsedNanos / 1e9, getThroughput()));
+            sb.append("latency   ").append(percentiles(latency))
+                    .append(String.format("%n"));
+            sb.append("service   ").append(percentiles(serviceTime))
+                    .append(String.format("%n"));
+            return sb.toString();
+        }
+
+        private static String percentiles(LatencyHistogram h) {
+            return String.format(
+                    "p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                    h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6,
+                    h.getPercentile(99.9) / 1e6, h.getMax() / 1e6);
+        }
+    }
+
+    public static class Builder {
+        private String uri;
+        private GraphPipeClient client;
+        private String config = "";
+        private final List<NativeTensor> inputs = new ArrayList<>();
+        private final List<String> inputNames = new ArrayList<>();
+        private final List<String> outputNames = new ArrayList<>();
+        private int concurrency = 1;
+        private double rate = 0;
+        private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+        private long warmupNanos = TimeUnit.SECONDS.toNanos(2);
+        private Random random = new Random(42);
+
+        private Builder() {
+        }
+
+        public Builder uri(String uri) {
+            this.uri = uri;
+            return this;
+        }
+
+        /**
+         * The client to send with. By default one is created with
+         * {@code concurrency} connections, and closed after the run.
+         */
+        public Builder client(GraphPipeClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder config(String config) {
+            this.config = config;
+            return this;
+        }
+
+        /** Adds an input tensor. */
+        public Builder input(NativeTensor input) {
+            this.inputs.add(input);
+            return this;
+        }
+
+        /** Adds a named input tensor. */
+        public Builder input(String name, NativeTensor input) {
+            this.inputNames.add(name);
+            this.inputs.add(input);
+            return this;
+        }
+
+        /**
+         * Adds an input tensor of random values. {@code dtype} is one of
+         * byte, short, int, long, float16, float or double.
+         */
+        public Builder input(String dtype, long... shape) {
+            return input(randomTensor(dtype, shape, random));
+        }
+
+        public Builder input(String name, String dtype, long... shape) {
+            return input(name, randomTensor(dtype, shape, random));
+        }
+
+        public Builder outputName(String name) {
+            this.outputNames.add(name);
+            return this;
+        }
+
+        /**
+         * Closed loop: the number of callers. Open loop: the most requests
+         * outstanding at once.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Sends requests open loop at this many per second. Zero (the
+         * default) runs closed loop.
+         */
+        public Builder rate(double perSecond) {
+            this.rate = perSecond;
+            return this;
+        }
+
+        /** How long to measure for, after the warmup. */
+        public Builder duration(long duration, TimeUnit unit) {
+            this.durationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /** How long to send requests before measuring. */
+        public Builder warmup(long duration, TimeUnit unit) {
+            this.warmupNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /** Seed for the random input values. */
+        public Builder seed(long seed) {
+            this.random = new Random(seed);
+            return this;
+        }
+
+        public LoadGenerator build() {
+            return new LoadGenerator(this);
+        }
+    }
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: LoadGenerator (--uri URL | --stub) [options]",
+            "  --uri URL            endpoint to load",
+            "  --stub               start a local StubServer and load it",
+            "  --stub-delay-ms N    service time of the stub server",
+            "  --input [NAME=]DTYPE:D0,D1,...",
+            "                       an input of random values (repeatable);",
+            "                       DTYPE is byte, short, int, long, float16,",
+            "                       float or double (default float:1,224)",
+            "  --output NAME        an output name (repeatable)",
+            "  --config STRING      model config",
+            "  --concurrency N      callers, or max outstanding (default 1)",
+            "  --rate R             open loop at R req/s (default closed loop)",
+            "  --duration S         seconds to measure (default 10)",
+            "  --warmup S           seconds to warm up first (default 2)");
+
+    public static void main(String[] args) throws Exception {
+        Builder b = builder();
+        boolean stub = false;
+        long stubDelayMillis = 0;
+        boolean anyInput = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--uri":
+                        b.uri(args[++i]);
+                        break;
+                    case "--stub":
+                        stub = true;
+                        break;
+                    case "--stub-delay-ms":
+                        stubDelayMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--input":
+                        parseInput(b, args[++i]);
+                        anyInput = true;
+                        break;
+                    case "--output":
+                        b.outputName(args[++i]);
+                        break;
+                    case "--config":
+                        b.config(args[++i]);
+                        break;
+                    case "--concurrency":
+                        b.concurrency(Integer.parseInt(args[++i]));
+                        break;
+                    case "--rate":
+                        b.rate(Double.parseDouble(args[++i]));
+                        break;
+                    case "--duration":
+                        b.duration((long)(Double.parseDouble(args[++i]) * 1000),
+                                TimeUnit.MILLISECONDS);
+                        break;
+                    case "--warmup":
+                        b.warmup((long)(Double.parseDouble(args[++i]) * 1000),
+                                TimeUnit.MILLISECONDS);
+                        break;
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unknown option " + args[i]);
+                }
+            }
+            if (!anyInput) {
+                b.input("float", 1, 224);
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        StubServer server = null;
+        if (stub) {
+            StubServer.useNoDelay();
+            server = new StubServer();
+            server.setDelay(stubDelayMillis, TimeUnit.MILLISECONDS);
+            b.uri(server.uri());
+        }
+        try {
+            System.out.print(b.build().run());
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    // [NAME=]DTYPE:D0,D1,...
+    private static void parseInput(Builder b, String spec) {
+        String name = null;
+        int eq = spec.indexOf('=');
+        if (eq >= 0) {
+            name = spec.substring(0, eq);
+            spec = spec.substring(eq + 1);
+        }
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Bad input spec: " + spec);
+        }
+        String dtype = spec.substring(0, colon);
+        long[] shape = Arrays.stream(spec.substring(colon + 1).split(","))
+                .mapToLong(Long::parseLong).toArray();
+        if (name == null) {
+            b.input(dtype, shape);
+        } else {
+            b.input(name, dtype, shape);
+        }
+    }
+}
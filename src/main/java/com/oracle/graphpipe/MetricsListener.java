@@ -0,0 +1,59 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+/**
+ * Receives per-phase timings and sizes of the inference requests a
+ * {@link GraphPipeClient} sends (see {@link GraphPipeClient.Builder#metrics}).
+ * Every method has a no-op default, so implementations override only what
+ * they record. {@link InMemoryMetrics} keeps histograms per endpoint.
+ *
+ * Methods are called from caller threads and from the client's I/O
+ * threads, so they must be thread-safe, quick and must not block. Metadata
+ * requests are not reported.
+ */
+public interface MetricsListener {
+    MetricsListener NONE = new MetricsListener() {
+    };
+
+    /** The request was encoded into {@code requestBytes} bytes. */
+    default void onEncode(String uri, long nanos, long requestBytes) {
+    }
+
+    /**
+     * The request waited this long to be sent: for a free pooled
+     * connection, or in the asynchronous path for a free in-flight slot.
+     */
+    default void onPoolWait(String uri, long nanos) {
+    }
+
+    /**
+     * The response arrived. {@code firstByteNanos} runs from sending the
+     * request to receiving the response headers, and {@code transferNanos}
+     * from then to the end of the body.
+     */
+    default void onResponse(String uri, long firstByteNanos,
+                            long transferNanos, long responseBytes) {
+    }
+
+    /**
+     * The request was identical to one already in flight, so it shared that
+     * one's response instead of being sent (see
+     * {@link GraphPipeClient.Builder#singleFlight}).
+     */
+    default void onShared(String uri) {
+    }
+
+    /** The response was decoded into output tensors. */
+    default void onDecode(String uri, long nanos) {
+    }
+
+    /**
+     * The request failed, locally or remotely. Cancelled asynchronous
+     * requests are not errors.
+     */
+    default void onError(String uri, Throwable error) {
+    }
+}
@@ -0,0 +1,365 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges concurrent small inferences into batched requests.
+ *
+ * Calls that go to the same endpoint with the same config, input names,
+ * output names, input types and input shapes (apart from dimension 0) are
+ * held for up to {@code maxWait}, stacked along dimension 0 into a single
+ * InferRequest, and sent together once {@code maxBatchSize} rows have
+ * accumulated or the wait runs out. Each caller gets back its own rows of
+ * every output, as views into the batched response.
+ *
+ * The model must treat dimension 0 as the batch dimension, and every output
+ * must have one row per input row. Calls with string or scalar inputs, and
+ * calls made after {@link #close()}, are sent on their own.
+ */
+public class MicroBatcher implements Closeable {
+    private final GraphPipeClient client;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<BatchKey, Batch> pending = new HashMap<>();
+    // Guarded by pending.
+    private boolean closed;
+
+    /**
+     * @param maxBatchSize The most rows (along dimension 0) to send in one
+     * request. A single call with more rows is sent on its own.
+     * @param maxWait How long the first call in a batch may wait for others.
+     */
+    public MicroBatcher(GraphPipeClient client, int maxBatchSize,
+                        long maxWait, TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.client = client;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "graphpipe-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        // Drop the timers of batches that fill up straight away, rather
+        // than keeping them queued until their deadline.
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public NativeTensor execute(String uri, NativeTensor input)
+            throws IOException {
+        return executeMulti("", uri, Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList()).get(0);
+    }
+
+    public NativeTensor execute(
+            String uri, NativeTensor input, String inputName, String outputName)
+            throws IOException {
+        return executeMulti("", uri, Collections.singletonList(input),
+                Collections.singletonList(inputName),
+                Collections.singletonList(outputName)).get(0);
+    }
+
+    public List<NativeTensor> executeMulti(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames)
+            throws IOException {
+        try {
+            return executeMultiAsync(
+                    config, uri, inputs, inputNames, outputNames).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(
+            String uri, NativeTensor input) {
+        return executeMultiAsync("", uri, Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList())
+                .thenApply(outputs -> outputs.get(0));
+    }
+
+    public CompletableFuture<List<NativeTensor>> executeMultiAsync(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        BatchKey key = BatchKey.of(config, uri, inputs, inputNames, outputNames);
+        if (key == null) {
+            return client.executeMultiAsync(
+                    config, uri, inputs, inputNames, outputNames);
+        }
+
+        Call call = new Call(inputs);
+        List<Batch> ready = new ArrayList<>(2);
+        boolean batched;
+        synchronized (pending) {
+            batched = !closed;
+            if (batched) {
+                batch(key, call, ready);
+            }
+        }
+        if (!batched) {
+            return client.executeMultiAsync(
+                    config, uri, inputs, inputNames, outputNames);
+        }
+        // Encode and send outside the lock.
+        for (Batch batch : ready) {
+            dispatch(batch);
+        }
+        return call.result;
+    }
+
+    // Adds the call to the batch for its key, collecting any batches that
+    // are ready to send. Must hold the pending lock.
+    private void batch(BatchKey key, Call call, List<Batch> ready) {
+        Batch batch = pending.get(key);
+        if (batch != null && batch.rows + call.rows > maxBatchSize) {
+            // Doesn't fit: send what we have and start over.
+            take(batch, ready);
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new Batch(key);
+            Batch scheduled = batch;
+            // Scheduled before it is published, so no batch is left
+            // pending without a timer if this throws.
+            batch.timeout = timer.schedule(() -> flush(scheduled),
+                    maxWaitNanos, TimeUnit.NANOSECONDS);
+            pending.put(key, batch);
+        }
+        batch.calls.add(call);
+        batch.rows += call.rows;
+        if (batch.rows >= maxBatchSize) {
+            take(batch, ready);
+        }
+    }
+
+    // Removes a batch that filled up before its timer ran, and cancels the
+    // timer so it doesn't hold on to the calls and their inputs until then.
+    // Must hold the pending lock.
+    private void take(Batch batch, List<Batch> ready) {
+        pending.remove(batch.key);
+        batch.timeout.cancel(false);
+        ready.add(batch);
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pending) {
+            if (pending.get(batch.key) != batch) {
+                // Already sent because it filled up.
+                return;
+            }
+            pending.remove(batch.key);
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        BatchKey key = batch.key;
+        List<NativeTensor> inputs;
+        if (batch.calls.size() == 1) {
+            inputs = batch.calls.get(0).inputs;
+        } else {
+            int nInputs = batch.calls.get(0).inputs.size();
+            inputs = new ArrayList<>(nInputs);
+            try {
+                for (int i = 0; i < nInputs; i++) {
+                    List<NumericNativeTensor> parts =
+                            new ArrayList<>(batch.calls.size());
+                    for (Call call : batch.calls) {
+                        parts.add((NumericNativeTensor)call.inputs.get(i));
+                    }
+                    inputs.add(NumericNativeTensor.concatRows(parts));
+                }
+            } catch (RuntimeException e) {
+                // Too large to stack.
+                for (Call call : batch.calls) {
+                    call.result.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+        CompletableFuture<List<NativeTensor>> sent = client.executeMultiAsync(
+                key.config, key.uri, inputs, key.inputNames, key.outputNames);
+
+        sent.whenComplete((outputs, t) -> {
+            if (t != null) {
+                for (Call call : batch.calls) {
+                    call.result.completeExceptionally(t);
+                }
+            } else if (batch.calls.size() == 1) {
+                batch.calls.get(0).result.complete(outputs);
+            } else {
+                split(batch, outputs);
+            }
+        });
+    }
+
+    /**
+     * @return How many batch timers are waiting to run.
+     */
+    int pendingTimers() {
+        return timer.getQueue().size();
+    }
+
+    private static void split(Batch batch, List<NativeTensor> outputs) {
+        for (NativeTensor output : outputs) {
+            List<Long> shape = output.getShape();
+            if (shape.isEmpty() || shape.get(0) != batch.rows) {
+                IOException e = new IOException("Batched output has shape "
+                        + shape + " but the batch has " + batch.rows
+                        + " rows");
+                for (Call call : batch.calls) {
+                    call.result.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+        long start = 0;
+        for (Call call : batch.calls) {
+            List<NativeTensor> mine = new ArrayList<>(outputs.size());
+            for (NativeTensor output : outputs) {
+                mine.add(output.sliceRows(start, call.rows));
+            }
+            start += call.rows;
+            call.result.complete(mine);
+        }
+    }
+
+    /**
+     * Sends any held calls immediately and stops the timer. Later calls are
+     * sent without batching. The client is not closed.
+     */
+    @Override
+    public void close() {
+        List<Batch> batches;
+        synchronized (pending) {
+            // No batch can be added, so none can be left without its timer.
+            closed = true;
+            batches = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        for (Batch batch : batches) {
+            dispatch(batch);
+        }
+        timer.shutdownNow();
+    }
+
+    private static class Call {
+        final List<NativeTensor> inputs;
+        final long rows;
+        final CompletableFuture<List<NativeTensor>> result =
+                new CompletableFuture<>();
+
+        Call(List<NativeTensor> inputs) {
+            this.inputs = inputs;
+            this.rows = inputs.get(0).getShape().get(0);
+        }
+    }
+
+    private static class Batch {
+        final BatchKey key;
+        final List<Call> calls = new ArrayList<>();
+        long rows;
+        ScheduledFuture<?> timeout;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * What calls must have in common to share a request.
+     */
+    private static class BatchKey {
+        final String config;
+        final String uri;
+        final List<String> inputNames;
+        final List<String> outputNames;
+        // Per input: element type followed by every dimension but the first.
+        final List<List<Long>> signatures;
+
+        private BatchKey(String config, String uri, List<String> inputNames,
+                         List<String> outputNames,
+                         List<List<Long>> signatures) {
+            this.config = config;
+            this.uri = uri;
+            this.inputNames = inputNames;
+            this.outputNames = outputNames;
+            this.signatures = signatures;
+        }
+
+        /**
+         * @return null if the call can't be batched.
+         */
+        static BatchKey of(String config, String uri, List<NativeTensor> inputs,
+                           List<String> inputNames, List<String> outputNames) {
+            if (inputs.isEmpty()) {
+                return null;
+            }
+            List<List<Long>> signatures = new ArrayList<>(inputs.size());
+            Long rows = null;
+            for (NativeTensor input : inputs) {
+                if (!(input instanceof NumericNativeTensor)
+                        || input.shape.isEmpty()) {
+                    return null;
+                }
+                // Inputs within a call must agree on their row count too.
+                if (rows != null && !rows.equals(input.shape.get(0))) {
+                    return null;
+                }
+                rows = input.shape.get(0);
+                List<Long> sig = new ArrayList<>(input.shape.size());
+                sig.add((long)((NumericNativeTensor)input).numConv.type);
+                sig.addAll(input.shape.subList(1, input.shape.size()));
+                signatures.add(sig);
+            }
+            return new BatchKey(config, uri, new ArrayList<>(inputNames),
+                    new ArrayList<>(outputNames), signatures);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey k = (BatchKey)o;
+            return config.equals(k.config) && uri.equals(k.uri)
+                    && inputNames.equals(k.inputNames)
+                    && outputNames.equals(k.outputNames)
+                    && signatures.equals(k.signatures);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(config, uri, inputNames, outputNames, signatures);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.oracle.graphpipefb.IOMetadata;
+import com.oracle.graphpipefb.MetadataResponse;
+import com.oracle.graphpipefb.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a model server says about the model it serves: its name and version,
+ * and the names, types and shapes of its inputs and outputs.
+ *
+ * Inputs and outputs are listed in the server's order; the first of each is
+ * what the server uses when a request doesn't name them.
+ */
+public class ModelMetadata {
+    private final String name;
+    private final String version;
+    private final String server;
+    private final String description;
+    private final List<IO> inputs;
+    private final List<IO> outputs;
+
+    ModelMetadata(String name, String version, String server,
+                  String description, List<IO> inputs, List<IO> outputs) {
+        this.name = name;
+        this.version = version;
+        this.server = server;
+        this.description = description;
+        this.inputs = Collections.unmodifiableList(inputs);
+        this.outputs = Collections.unmodifiableList(outputs);
+    }
+
+    static ModelMetadata fromResponse(MetadataResponse mr) {
+        List<IO> inputs = new ArrayList<>(mr.inputsLength());
+        for (int i = 0; i < mr.inputsLength(); i++) {
+            inputs.add(IO.fromIOMetadata(mr.inputs(i)));
+        }
+        List<IO> outputs = new ArrayList<>(mr.outputsLength());
+        for (int i = 0; i < mr.outputsLength(); i++) {
+            outputs.add(IO.fromIOMetadata(mr.outputs(i)));
+        }
+        return new ModelMetadata(nullToEmpty(mr.name()),
+                nullToEmpty(mr.version()), nullToEmpty(mr.server()),
+                nullToEmpty(mr.description()), inputs, outputs);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public List<IO> getInputs() {
+        return inputs;
+    }
+
+    public List<IO> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @return The named input, or null if the model has no such input.
+     */
+    public IO getInput(String name) {
+        return find(inputs, name);
+    }
+
+    /**
+     * @return The named output, or null if the model has no such output.
+     */
+    public IO getOutput(String name) {
+        return find(outputs, name);
+    }
+
+    /**
+     * Fills in names the caller left out: with no input names, the inputs
+     * are taken to be the model's first {@code inputCount} inputs, in order.
+     * Explicit names are returned unchanged.
+     */
+    public List<String> resolveInputNames(
+            List<String> inputNames, int inputCount) {
+        if (!inputNames.isEmpty()) {
+            return inputNames;
+        }
+        if (inputCount > inputs.size()) {
+            throw new IllegalArgumentException("Model " + name + " takes "
+                    + inputs.size() + " inputs, but " + inputCount
+                    + " were given");
+        }
+        return names(inputs.subList(0, inputCount));
+    }
+
+    /**
+     * Fills in names the caller left out: with no output names, the result
+     * is the model's first output, as the server would return.
+     */
+    public List<String> resolveOutputNames(List<String> outputNames) {
+        if (!outputNames.isEmpty() || outputs.isEmpty()) {
+            return outputNames;
+        }
+        return Collections.singletonList(outputs.get(0).getName());
+    }
+
+    /**
+     * Checks a request against the model's signature without sending it.
+     * Empty name lists are resolved as {@link #resolveInputNames} and
+     * {@link #resolveOutputNames} do.
+     *
+     * @throws IllegalArgumentException Naming the first input or output
+     * that the server would reject.
+     */
+    public void validate(List<NativeTensor> inputs, List<String> inputNames,
+                         List<String> outputNames) {
+        if (!inputNames.isEmpty() && inputNames.size() != inputs.size()) {
+            throw new IllegalArgumentException("Got " + inputs.size()
+                    + " inputs but " + inputNames.size() + " input names");
+        }
+        List<String> names = resolveInputNames(inputNames, inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            IO io = getInput(names.get(i));
+            if (io == null) {
+                throw new IllegalArgumentException("Model " + name
+                        + " has no input named '" + names.get(i) + "'");
+            }
+            io.check(inputs.get(i));
+        }
+        for (String output : outputNames) {
+            if (getOutput(output) == null) {
+                throw new IllegalArgumentException("Model " + name
+                        + " has no output named '" + output + "'");
+            }
+        }
+    }
+
+    private static IO find(List<IO> ios, String name) {
+        for (IO io : ios) {
+            if (io.getName().equals(name)) {
+                return io;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> names(List<IO> ios) {
+        List<String> names = new ArrayList<>(ios.size());
+        for (IO io : ios) {
+            names.add(io.getName());
+        }
+        return names;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelMetadata{name=" + name + ", version=" + version
+                + ", inputs=" + inputs + ", outputs=" + outputs + "}";
+    }
+
+    /**
+     * One input or output of a model.
+     */
+    public static class IO {
+        private final String name;
+        private final String description;
+        private final List<Long> shape;
+        private final int type;
+
+        IO(String name, String description, List<Long> shape, int type) {
+            this.name = name;
+            this.description = description;
+            this.shape = Collections.unmodifiableList(shape);
+            this.type = type;
+        }
+
+        static IO fromIOMetadata(IOMetadata m) {
+            List<Long> shape = new ArrayList<>(m.shapeLength());
+            for (int i = 0; i < m.shapeLength(); i++) {
+                shape.add(m.shape(i));
+            }
+            return new IO(nullToEmpty(m.name()), nullToEmpty(m.description()),
+                    shape, m.type());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return The expected shape. A negative dimension matches any size;
+         * an empty shape means the server didn't say.
+         */
+        public List<Long> getShape() {
+            return shape;
+        }
+
+        /**
+         * @return One of the {@link Type} constants. {@link Type#Null} means
+         * the server didn't say.
+         */
+        public int getType() {
+            return type;
+        }
+
+        void check(NativeTensor t) {
+            if (type != Type.Null && t.getType() != type) {
+                throw new IllegalArgumentException("Input '" + name
+                        + "' must be " + Type.name(type) + ", not "
+                        + Type.name(t.getType()));
+            }
+            if (shape.isEmpty()) {
+                return;
+            }
+            List<Long> actual = t.getShape();
+            boolean ok = actual.size() == shape.size();
+            for (int i = 0; ok && i < shape.size(); i++) {
+                long want = shape.get(i);
+                ok = want < 0 || want == actual.get(i);
+            }
+            if (!ok) {
+                throw new IllegalArgumentException("Input '" + name
+                        + "' must have shape " + shape + ", not " + actual);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + Type.name(type) + shape;
+        }
+    }
+}
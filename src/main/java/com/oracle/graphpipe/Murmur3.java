@@ -0,0 +1,179 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental 128-bit MurmurHash3 (the x64 variant). Feeding the same bytes
+ * in any number of pieces gives the same hash as feeding them at once, and
+ * ByteBuffers are read in place, 16 bytes at a time.
+ *
+ * Not cryptographic: fine for telling honest inputs apart, not for inputs
+ * chosen to collide.
+ */
+class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    // Bytes waiting for a full 16-byte block.
+    private final ByteBuffer pending =
+            ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+    Murmur3() {
+        this(0);
+    }
+
+    Murmur3(long seed) {
+        this.h1 = seed;
+        this.h2 = seed;
+    }
+
+    /** Hashes the buffer's remaining bytes, without moving its position. */
+    Murmur3 update(ByteBuffer bb) {
+        int pos = bb.position();
+        int end = bb.limit();
+        length += end - pos;
+        while (pending.position() > 0 && pos < end) {
+            pending.put(bb.get(pos++));
+            if (!pending.hasRemaining()) {
+                block(pending.getLong(0), pending.getLong(8));
+                pending.clear();
+            }
+        }
+        if (pos < end) {
+            // A view, so that other readers of bb never see its order change.
+            ByteBuffer le = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (; end - pos >= 16; pos += 16) {
+                block(le.getLong(pos), le.getLong(pos + 8));
+            }
+            while (pos < end) {
+                pending.put(bb.get(pos++));
+            }
+        }
+        return this;
+    }
+
+    Murmur3 update(byte[] bytes) {
+        return update(ByteBuffer.wrap(bytes));
+    }
+
+    Murmur3 update(long v) {
+        if (pending.remaining() >= 8) {
+            length += 8;
+            pending.putLong(v);
+            if (!pending.hasRemaining()) {
+                block(pending.getLong(0), pending.getLong(8));
+                pending.clear();
+            }
+            return this;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putLong(0, v);
+        return update(bb);
+    }
+
+    /** Hashes the string's length and UTF-8 bytes. */
+    Murmur3 update(String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        update(utf8.length);
+        return update(utf8);
+    }
+
+    private void block(long k1, long k2) {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /** The hash of everything fed so far. The hasher can't be reused. */
+    Hash finish() {
+        int n = pending.position();
+        if (n > 0) {
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = Math.min(n, 16) - 1; i >= 8; i--) {
+                k2 = (k2 << 8) | (pending.get(i) & 0xff);
+            }
+            for (int i = Math.min(n, 8) - 1; i >= 0; i--) {
+                k1 = (k1 << 8) | (pending.get(i) & 0xff);
+            }
+            h2 ^= mixK2(k2);
+            h1 ^= mixK1(k1);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new Hash(h1, h2);
+    }
+
+    static final class Hash {
+        final long h1;
+        final long h2;
+
+        Hash(long h1, long h2) {
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Hash)) {
+                return false;
+            }
+            Hash other = (Hash)o;
+            return h1 == other.h1 && h2 == other.h2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)h1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", h1, h2);
+        }
+    }
+}
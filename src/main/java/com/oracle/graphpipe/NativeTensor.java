@@ -9,14 +9,25 @@ import com.oracle.graphpipefb.Tensor;
 import com.oracle.graphpipefb.Type;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
-public abstract class NativeTensor {
+public abstract class NativeTensor implements AutoCloseable {
     public static NativeTensor fromTensor(Tensor t) {
         if (t.type() == Type.String) {
             return new StringNativeTensor(t);
@@ -67,12 +78,174 @@ public abstract class NativeTensor {
                 "Cannot convert type " + oClass.getSimpleName());
     }
     
+    /**
+     * Keeps the INDArray's element type. If the array is row-major and
+     * contiguous (e.g. not transposed), the tensor is a view of its memory
+     * rather than a copy, and sees later changes to it.
+     */
     public static NativeTensor fromINDArray(INDArray ndAry) {
-        return new NumericNativeTensor(ndAry);
+        return NdArrays.fromINDArray(ndAry);
+    }
+
+    /**
+     * A String tensor from already-encoded UTF-8 strings, which are sent
+     * as they are. The byte arrays are not copied and must not be changed.
+     *
+     * @param utf8 The elements, flattened in row-major order.
+     */
+    public static NativeTensor fromUtf8(byte[][] utf8, long... shape) {
+        return new StringNativeTensor(utf8, shape);
+    }
+
+    /**
+     * Like {@link #fromArray}, but the data is copied straight into off-heap
+     * memory owned by the tensor, which {@link #close()} frees.
+     */
+    public static NativeTensor directFromArray(Object ary) {
+        if (!ary.getClass().isArray()) {
+            throw new IllegalArgumentException("Not an array");
+        }
+        return new NumericNativeTensor(ary, numConverter(getAryType(ary)), true);
+    }
+
+    /**
+     * Like {@link #fromFlatArray}, but the data is copied straight into
+     * off-heap memory owned by the tensor, which {@link #close()} frees.
+     */
+    public static NativeTensor directFromFlatArray(Object ary, long[] shape) {
+        if (!ary.getClass().isArray()) {
+            throw new IllegalArgumentException("Not an array");
+        }
+        return new NumericNativeTensor(ary, shape,
+                numConverter(ary.getClass().getComponentType()), true);
+    }
+
+    /**
+     * Wraps existing data without copying it. The bytes between the
+     * buffer's position and limit must hold exactly the tensor's elements,
+     * little-endian, in row-major order. Later changes to them are seen by
+     * the tensor. The caller keeps ownership: {@link #close()} won't free
+     * the buffer.
+     *
+     * @param elemType The element type, e.g. {@code float.class}.
+     */
+    public static NativeTensor fromByteBuffer(
+            ByteBuffer data, Class<?> elemType, long... shape) {
+        return new NumericNativeTensor(
+                data.slice(), shape, numConverter(elemType), null);
+    }
+
+    // A typed buffer can't be viewed as bytes again, so the factories below
+    // copy it, once and in bulk, into off-heap memory owned by the tensor.
+    // Use fromByteBuffer() on the underlying ByteBuffer to avoid the copy.
+
+    public static NativeTensor fromShortBuffer(ShortBuffer buf, long... shape) {
+        ByteBuffer data = allocateDirect(buf.remaining(), 2);
+        data.asShortBuffer().put(buf.duplicate());
+        return new NumericNativeTensor(
+                data, shape, NumConverters.byClass(short.class), data);
+    }
+
+    public static NativeTensor fromIntBuffer(IntBuffer buf, long... shape) {
+        ByteBuffer data = allocateDirect(buf.remaining(), 4);
+        data.asIntBuffer().put(buf.duplicate());
+        return new NumericNativeTensor(
+                data, shape, NumConverters.byClass(int.class), data);
+    }
+
+    public static NativeTensor fromLongBuffer(LongBuffer buf, long... shape) {
+        ByteBuffer data = allocateDirect(buf.remaining(), 8);
+        data.asLongBuffer().put(buf.duplicate());
+        return new NumericNativeTensor(
+                data, shape, NumConverters.byClass(long.class), data);
+    }
+
+    public static NativeTensor fromFloatBuffer(FloatBuffer buf, long... shape) {
+        ByteBuffer data = allocateDirect(buf.remaining(), 4);
+        data.asFloatBuffer().put(buf.duplicate());
+        return new NumericNativeTensor(
+                data, shape, NumConverters.byClass(float.class), data);
+    }
+
+    public static NativeTensor fromDoubleBuffer(DoubleBuffer buf, long... shape) {
+        ByteBuffer data = allocateDirect(buf.remaining(), 8);
+        data.asDoubleBuffer().put(buf.duplicate());
+        return new NumericNativeTensor(
+                data, shape, NumConverters.byClass(double.class), data);
+    }
+
+    private static NumConverter numConverter(Class<?> clazz) {
+        NumConverter nc = NumConverters.byClass(clazz);
+        if (nc == null) {
+            throw new IllegalArgumentException(
+                    "Cannot convert type " + clazz.getSimpleName());
+        }
+        return nc;
+    }
+
+    static ByteBuffer allocateDirect(long elemCount, int elemSize) {
+        long bytes = elemCount * elemSize;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Tensor too large: " + bytes + " bytes");
+        }
+        return ByteBuffer.allocateDirect((int)bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes the tensor to a file that {@link #map} can open.
+     */
+    public void save(Path path) throws IOException {
+        TensorFiles.save(path, Collections.singletonMap("", this));
+    }
+
+    /**
+     * Writes several named tensors to one file that {@link #mapAll} can
+     * open.
+     */
+    public static void saveAll(Path path, Map<String, NativeTensor> tensors)
+            throws IOException {
+        TensorFiles.save(path, tensors);
+    }
+
+    /**
+     * Opens a file written by {@link #save} (or the first tensor of one
+     * written by {@link #saveAll}). The file is memory-mapped, not read:
+     * numeric data is paged in lazily as it is accessed.
+     */
+    public static NativeTensor map(Path path) throws IOException {
+        Map<String, NativeTensor> tensors = TensorFiles.map(path);
+        if (tensors.isEmpty()) {
+            throw new IOException(path + " contains no tensors");
+        }
+        return tensors.values().iterator().next();
+    }
+
+    /**
+     * Opens every tensor in a file written by {@link #saveAll} with a single
+     * memory mapping.
+     *
+     * @return The tensors by name, in the order they were saved.
+     */
+    public static Map<String, NativeTensor> mapAll(Path path)
+            throws IOException {
+        return TensorFiles.map(path);
+    }
+
+    /**
+     * Frees any off-heap memory the tensor owns (see
+     * {@link #directFromArray} and the typed-buffer factories). The tensor,
+     * and any views taken from it, must not be used afterwards. Does nothing
+     * for tensors backed by the Java heap or by someone else's memory.
+     */
+    @Override
+    public void close() {
     }
     
     public Tensor toTensor() {
-        FlatBufferBuilder b = new FlatBufferBuilder(1024);
+        FlatBufferBuilder b = new FlatBufferBuilder(
+                (int)Math.min(serializedSize(), Integer.MAX_VALUE - 8));
         int offset = this.Build(b);
         b.finish(offset);
         ByteBuffer bb = b.dataBuffer();
@@ -84,6 +257,128 @@ public abstract class NativeTensor {
     public abstract Object toFlatArray();
     public abstract INDArray toINDArray();
     public abstract int Build(FlatBufferBuilder b);
+
+    /**
+     * A Float16 copy of a Float32 or Float64 tensor, at half (or a quarter
+     * of) the size on the wire. Values are rounded to the nearest half:
+     * about three significant decimal digits. The largest finite half is
+     * 65504, and anything of magnitude 65520 or more becomes infinity.
+     * Float64 values are rounded once, not through Float32. A Float16
+     * tensor is returned as is.
+     *
+     * @throws UnsupportedOperationException For any other element type.
+     */
+    public NativeTensor toFloat16() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * A Float32 copy of a Float16 or Float64 tensor, so that it can be read
+     * with {@link #asFloatBuffer()} and {@link #getFloat}. A Float32 tensor
+     * is returned as is.
+     *
+     * @throws UnsupportedOperationException For any other element type.
+     */
+    public NativeTensor toFloat32() {
+        throw new UnsupportedOperationException();
+    }
+
+    // An estimate of how many bytes Build() will add, used to size builders
+    // up front.
+    abstract long serializedSize();
+
+    // Whether the elements are held off-heap.
+    boolean isDirect() {
+        return false;
+    }
+
+    // Rows [start, start + count) along dimension 0.
+    abstract NativeTensor sliceRows(long start, long count);
+
+    // Feeds the element type, shape and elements to h. Elements are read in
+    // place, without copying.
+    abstract void hashInto(Murmur3 h);
+
+    void hashHeader(Murmur3 h) {
+        h.update(getType());
+        h.update(this.shape.size());
+        for (long dim : this.shape) {
+            h.update(dim);
+        }
+    }
+
+    // Read-only views over the tensor's data, in row-major order. Unlike
+    // toArray() and toFlatArray() these don't copy: they read in place from
+    // the buffer holding the tensor (for results, the response itself).
+    // Each throws UnsupportedOperationException if the tensor's element type
+    // doesn't match.
+
+    /** The raw little-endian bytes. Supported for every numeric type. */
+    public ByteBuffer asByteBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    public ShortBuffer asShortBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    public IntBuffer asIntBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    public LongBuffer asLongBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    public FloatBuffer asFloatBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    public DoubleBuffer asDoubleBuffer() {
+        throw new UnsupportedOperationException();
+    }
+
+    // Single-element reads, also in place. The index must have one entry
+    // per dimension.
+
+    public byte getByte(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    public short getShort(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getInt(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    public long getLong(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Also reads Float16 tensors. */
+    public float getFloat(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    public double getDouble(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    // For String tensors. Elements of a result are decoded on first access.
+
+    public String getString(long... index) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The element's UTF-8 bytes, read-only. For results this is a slice of
+     * the response; nothing is decoded or copied.
+     */
+    public ByteBuffer getUtf8(long... index) {
+        throw new UnsupportedOperationException();
+    }
     
     
     final List<Long> shape = new ArrayList<>();
@@ -92,16 +387,23 @@ public abstract class NativeTensor {
     public List<Long> getShape() {
         return shape;
     }
+
+    /**
+     * @return The element type, one of the {@link Type} constants.
+     */
+    public abstract int getType();
     
     private static Class<?> getAryType(Object ary) {
-        // We inspect the child element (instead of doing it in the recursive
-        // call) to prevent autoboxing.
-        Object el = Array.get(ary, 0);
-        if (el.getClass().isArray()) {
-            return getAryType(el);
-        } else {
-            return ary.getClass().getComponentType();
+        if (ary instanceof Object[]) {
+            Object el = ((Object[])ary)[0];
+            if (el.getClass().isArray()) {
+                return getAryType(el);
+            }
+        } else if (Array.getLength(ary) == 0) {
+            // Consistent with the Object[] case above.
+            throw new ArrayIndexOutOfBoundsException(0);
         }
+        return ary.getClass().getComponentType();
     }
 
     void fillShape(Tensor t) {
@@ -111,20 +413,73 @@ public abstract class NativeTensor {
         }
     }
 
-    // For multidimensional arrays.
+    // For multidimensional arrays. Only the first row of each dimension is
+    // looked at; fillFrom() checks the rest.
     void fillShape(Object ary) {
-        if (ary.getClass().isArray()) {
-            long length = Array.getLength(ary);
-            this.shape.add(length);
-            this.elemCount *= length;
-            fillShape(Array.get(ary, 0));
+        while (isNested(ary)) {
+            Object[] rows = (Object[])ary;
+            this.shape.add((long)rows.length);
+            this.elemCount *= rows.length;
+            ary = rows[0];
         }
+        long length = Array.getLength(ary);
+        this.shape.add(length);
+        this.elemCount *= length;
+    }
+
+    // Whether the array's elements are themselves arrays.
+    static boolean isNested(Object ary) {
+        if (!(ary instanceof Object[])) {
+            return false;
+        }
+        Object[] rows = (Object[])ary;
+        return rows.length > 0 && rows[0] != null
+                && rows[0].getClass().isArray();
     }
 
     static long[] intsToLongs(int[] ints) {
         return Arrays.stream(ints).mapToLong(i->i).toArray();
     }
     
+    // Elements per row along dimension 0.
+    int rowElems() {
+        long rows = this.shape.get(0);
+        return rows == 0 ? 0 : (int)(this.elemCount / rows);
+    }
+
+    long[] rowSliceShape(long start, long count) {
+        if (this.shape.isEmpty()) {
+            throw new IllegalArgumentException("Cannot slice a scalar");
+        }
+        if (start < 0 || count < 0 || start + count > this.shape.get(0)) {
+            throw new IndexOutOfBoundsException("Rows [" + start + ", "
+                    + (start + count) + ") out of range for dimension 0 of "
+                    + "size " + this.shape.get(0));
+        }
+        long[] newShape = shapeAsArray();
+        newShape[0] = count;
+        return newShape;
+    }
+
+    // Row-major position of an element.
+    int flatIndex(long... index) {
+        if (index.length != this.shape.size()) {
+            throw new IllegalArgumentException("Expected " + this.shape.size()
+                    + " indices but got " + index.length);
+        }
+        long flat = 0;
+        for (int i = 0; i < index.length; i++) {
+            long dim = this.shape.get(i);
+            if (index[i] < 0 || index[i] >= dim) {
+                throw new IndexOutOfBoundsException("Index " + index[i]
+                        + " out of bounds for dimension " + i + " of size "
+                        + dim);
+            }
+            flat = flat * dim + index[i];
+        }
+        return (int)flat;
+    }
+
     long[] shapeAsArray() {
         return this.shape.stream().mapToLong(i->i).toArray();
     }
@@ -137,64 +492,152 @@ public abstract class NativeTensor {
 }
 
 class NumericNativeTensor extends NativeTensor {
-    final ByteBuffer data;
+    private static final ByteBuffer FREED = ByteBuffer.allocate(0);
+
+    ByteBuffer data;
     final NumConverter numConv;
+    // Set if data lives in off-heap memory that close() should free.
+    private ByteBuffer owned;
+    // Whatever else owns the memory behind data (e.g. an INDArray), held so
+    // it isn't collected while the tensor is alive.
+    private Object attachment;
     
     NumericNativeTensor(Tensor t) {
         fillShape(t);
-        this.data = t.dataAsByteBuffer();
+        // Slice so that the data starts at position 0, like the buffers we
+        // allocate ourselves. This is still a view into the FlatBuffer.
+        ByteBuffer bb = t.dataAsByteBuffer();
+        this.data = bb == null
+                ? ByteBuffer.allocate(0)
+                : bb.slice().order(ByteOrder.LITTLE_ENDIAN);
         this.numConv = NumConverters.byType(t.type());
     }
     
     NumericNativeTensor(Object ary, NumConverter nc) {
+        this(ary, nc, false);
+    }
+
+    NumericNativeTensor(Object ary, NumConverter nc, boolean direct) {
         fillShape(ary);
         this.numConv = nc;
-        this.data = ByteBuffer.allocate(this.elemCount * this.numConv.size)
-                .order(ByteOrder.LITTLE_ENDIAN);
-        fillFrom(ary, 0);
-        this.data.rewind();
+        this.data = allocateData(direct);
+        fillFrom(nc.view(this.data), ary, 0);
     }
 
     NumericNativeTensor(Object ary, long[] shape, NumConverter nc) {
-        this.elemCount = Array.getLength(ary);
+        this(ary, shape, nc, false);
+    }
+
+    NumericNativeTensor(
+            Object ary, long[] shape, NumConverter nc, boolean direct) {
+        this.elemCount = nc.length(ary);
         for (long l : shape) this.shape.add(l);
         this.numConv = nc;
-        this.data = ByteBuffer.allocate(this.elemCount * this.numConv.size)
+        this.data = allocateData(direct);
+        this.numConv.put(nc.view(this.data), ary);
+    }
+
+    /**
+     * @param owned The off-heap buffer to free on close(), if the tensor
+     * owns it.
+     */
+    NumericNativeTensor(
+            ByteBuffer data, long[] shape, NumConverter nc, ByteBuffer owned) {
+        this(data, shape, nc, owned, null);
+    }
+
+    NumericNativeTensor(ByteBuffer data, long[] shape, NumConverter nc,
+                        ByteBuffer owned, Object attachment) {
+        this.attachment = attachment;
+        long count = 1;
+        for (long l : shape) {
+            this.shape.add(l);
+            count *= l;
+        }
+        if (count * nc.size != data.remaining()) {
+            throw new IllegalArgumentException("Shape " + Arrays.toString(shape)
+                    + " needs " + count * nc.size + " bytes of data, but got "
+                    + data.remaining());
+        }
+        this.elemCount = (int)count;
+        this.numConv = nc;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.owned = owned;
+    }
+
+    private ByteBuffer allocateData(boolean direct) {
+        if (direct) {
+            this.owned = allocateDirect(this.elemCount, this.numConv.size);
+            return this.owned;
+        }
+        return ByteBuffer.allocate(this.elemCount * this.numConv.size)
                 .order(ByteOrder.LITTLE_ENDIAN);
-        this.numConv.put(data, ary);
-        this.data.rewind();
     }
-    
-    private void fillFrom(Object ary, int dim) {
-        if (this.shape.get(dim) != Array.getLength(ary)) {
-            throw new IllegalArgumentException("Array is not rectangular");
+
+    @Override
+    public void close() {
+        if (this.owned != null) {
+            ByteBuffer mem = this.owned;
+            this.owned = null;
+            // Reads after close() now fail instead of touching freed memory.
+            this.data = FREED;
+            DirectBuffers.free(mem);
         }
+    }
+    
+    // The walks below cast instead of going through java.lang.reflect, and
+    // all rows share one typed view that advances as each row is copied.
 
+    private void fillFrom(Buffer view, Object ary, int dim) {
         if (dim == this.shape.size() - 1) {
-            this.numConv.put(data, ary);
-            this.numConv.advance(data, ary);
-        } else {
-            for (int i = 0; i < this.shape.get(dim); i++) {
-                fillFrom(Array.get(ary, i), dim + 1);
+            if (this.shape.get(dim) != this.numConv.length(ary)) {
+                throw new IllegalArgumentException("Array is not rectangular");
             }
+            this.numConv.put(view, ary);
+            return;
+        }
+        Object[] rows = (Object[])ary;
+        if (this.shape.get(dim) != rows.length) {
+            throw new IllegalArgumentException("Array is not rectangular");
+        }
+        if (dim == this.shape.size() - 2) {
+            // Most arrays are rank 1 or 2: handle the last two dimensions
+            // without recursing per row.
+            long cols = this.shape.get(dim + 1);
+            for (Object row : rows) {
+                if (cols != this.numConv.length(row)) {
+                    throw new IllegalArgumentException(
+                            "Array is not rectangular");
+                }
+                this.numConv.put(view, row);
+            }
+            return;
+        }
+        for (Object row : rows) {
+            fillFrom(view, row, dim + 1);
         }
     }
     
-    private void fillTo(Object ndAry, int dim) {
+    private void fillTo(Buffer view, Object ndAry, int dim) {
         if (dim == shape.size() - 1) {
-            this.numConv.get(this.data, ndAry);
-            this.numConv.advance(this.data, ndAry);
-        } else {
-            for (int i = 0; i < Array.getLength(ndAry); i++) {
-                fillTo(Array.get(ndAry, i), dim + 1);
+            this.numConv.get(view, ndAry);
+            return;
+        }
+        Object[] rows = (Object[])ndAry;
+        if (dim == this.shape.size() - 2) {
+            for (Object row : rows) {
+                this.numConv.get(view, row);
             }
+            return;
+        }
+        for (Object row : rows) {
+            fillTo(view, row, dim + 1);
         }
     }
 
-    NumericNativeTensor(INDArray ndAry) {
-        this(ndAry.ravel().data().asFloat(),
-                intsToLongs(ndAry.shape()),
-                NumConverters.byClass(float.class));
+    @Override
+    public int getType() {
+        return this.numConv.type;
     }
 
     public INDArray toINDArray() {
@@ -207,72 +650,360 @@ class NumericNativeTensor extends NativeTensor {
 
     public Object toArray() {
         Object ary = this.numConv.createNDArray(shapeAsIntArray());
-        fillTo(ary, 0);
-        this.data.rewind();
+        fillTo(this.numConv.view(this.data), ary, 0);
         return ary;
     }
 
+    public NativeTensor toFloat16() {
+        if (this.numConv.type == Type.Float16) {
+            return this;
+        }
+        ByteBuffer out = ByteBuffer.allocate(this.elemCount * 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (this.numConv.type == Type.Float32) {
+            for (int i = 0; i < this.elemCount; i++) {
+                out.putShort(i * 2,
+                        HalfFloats.fromFloat(this.data.getFloat(i * 4)));
+            }
+        } else if (this.numConv.type == Type.Float64) {
+            for (int i = 0; i < this.elemCount; i++) {
+                out.putShort(i * 2,
+                        HalfFloats.fromDouble(this.data.getDouble(i * 8)));
+            }
+        } else {
+            checkType(Type.Float32);
+        }
+        return new NumericNativeTensor(
+                out, shapeAsArray(), NumConverters.FLOAT16, null);
+    }
+
+    public NativeTensor toFloat32() {
+        if (this.numConv.type == Type.Float32) {
+            return this;
+        }
+        ByteBuffer out = ByteBuffer.allocate(this.elemCount * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (this.numConv.type == Type.Float16) {
+            for (int i = 0; i < this.elemCount; i++) {
+                out.putFloat(i * 4,
+                        HalfFloats.toFloat(this.data.getShort(i * 2)));
+            }
+        } else if (this.numConv.type == Type.Float64) {
+            for (int i = 0; i < this.elemCount; i++) {
+                out.putFloat(i * 4, (float)this.data.getDouble(i * 8));
+            }
+        } else {
+            checkType(Type.Float32);
+        }
+        return new NumericNativeTensor(out, shapeAsArray(),
+                NumConverters.byClass(float.class), null);
+    }
+
+    // Zero-copy: the slice shares this tensor's data.
+    NativeTensor sliceRows(long start, long count) {
+        long[] newShape = rowSliceShape(start, count);
+        int rowBytes = rowElems() * this.numConv.size;
+        ByteBuffer bb = this.data.duplicate();
+        bb.clear();
+        bb.position((int)(start * rowBytes));
+        bb.limit((int)((start + count) * rowBytes));
+        return new NumericNativeTensor(
+                bb.slice(), newShape, this.numConv, null, this.attachment);
+    }
+
+    /**
+     * Stacks tensors along dimension 0. They must have the same element type
+     * and the same size in every other dimension.
+     */
+    static NumericNativeTensor concatRows(List<NumericNativeTensor> parts) {
+        NumericNativeTensor first = parts.get(0);
+        long rows = 0;
+        long bytes = 0;
+        for (NumericNativeTensor t : parts) {
+            if (t.numConv != first.numConv || t.shape.size() == 0
+                    || !t.shape.subList(1, t.shape.size()).equals(
+                            first.shape.subList(1, first.shape.size()))) {
+                throw new IllegalArgumentException(
+                        "Tensors must share type and trailing dimensions");
+            }
+            rows += t.shape.get(0);
+            bytes += (long)t.elemCount * t.numConv.size;
+        }
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Concatenation too large");
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int)bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (NumericNativeTensor t : parts) {
+            ByteBuffer src = t.data.duplicate();
+            src.clear().limit(t.elemCount * t.numConv.size);
+            data.put(src);
+        }
+        data.flip();
+
+        long[] shape = first.shapeAsArray();
+        shape[0] = rows;
+        return new NumericNativeTensor(data, shape, first.numConv, null);
+    }
+
+    long serializedSize() {
+        return (long)this.elemCount * this.numConv.size
+                + this.shape.size() * 8 + 64;
+    }
+
+    @Override
+    boolean isDirect() {
+        return this.data.isDirect();
+    }
+
+    @Override
+    void hashInto(Murmur3 h) {
+        hashHeader(h);
+        h.update(this.data);
+    }
+
     public int Build(FlatBufferBuilder b) {
         int shapeOffset = Tensor.createShapeVector(b, shapeAsArray());
-        int dataOffset = Tensor.createDataVector(b, this.data.array());
+        int dataOffset = createDataVector(b);
         Tensor.startTensor(b);
         Tensor.addShape(b, shapeOffset);
         Tensor.addType(b, this.numConv.type);
         Tensor.addData(b, dataOffset);
         return Tensor.endTensor(b);
     }
+
+    public ByteBuffer asByteBuffer() {
+        ByteBuffer ro = this.data.asReadOnlyBuffer();
+        ro.clear().limit(this.elemCount * this.numConv.size);
+        return ro.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public ShortBuffer asShortBuffer() {
+        checkType(Type.Int16);
+        return asByteBuffer().asShortBuffer();
+    }
+
+    public IntBuffer asIntBuffer() {
+        checkType(Type.Int32);
+        return asByteBuffer().asIntBuffer();
+    }
+
+    public LongBuffer asLongBuffer() {
+        checkType(Type.Int64);
+        return asByteBuffer().asLongBuffer();
+    }
+
+    public FloatBuffer asFloatBuffer() {
+        checkType(Type.Float32);
+        return asByteBuffer().asFloatBuffer();
+    }
+
+    public DoubleBuffer asDoubleBuffer() {
+        checkType(Type.Float64);
+        return asByteBuffer().asDoubleBuffer();
+    }
+
+    public byte getByte(long... index) {
+        checkType(Type.Int8);
+        return this.data.get(flatIndex(index));
+    }
+
+    public short getShort(long... index) {
+        checkType(Type.Int16);
+        return this.data.getShort(flatIndex(index) * 2);
+    }
+
+    public int getInt(long... index) {
+        checkType(Type.Int32);
+        return this.data.getInt(flatIndex(index) * 4);
+    }
+
+    public long getLong(long... index) {
+        checkType(Type.Int64);
+        return this.data.getLong(flatIndex(index) * 8);
+    }
+
+    public float getFloat(long... index) {
+        if (this.numConv.type == Type.Float16) {
+            return HalfFloats.toFloat(this.data.getShort(flatIndex(index) * 2));
+        }
+        checkType(Type.Float32);
+        return this.data.getFloat(flatIndex(index) * 4);
+    }
+
+    public double getDouble(long... index) {
+        checkType(Type.Float64);
+        return this.data.getDouble(flatIndex(index) * 8);
+    }
+
+    private void checkType(int type) {
+        if (this.numConv.type != type) {
+            throw new UnsupportedOperationException("Tensor is "
+                    + Type.name(this.numConv.type) + ", not "
+                    + Type.name(type));
+        }
+    }
+
+    // Unlike the generated Tensor.createDataVector(), which adds one byte at
+    // a time, this reserves the vector and copies the payload in bulk. It
+    // works whether the data is on-heap, direct, read-only or a slice. The
+    // vector is aligned to the element size so readers can view it in place.
+    private int createDataVector(FlatBufferBuilder b) {
+        ByteBuffer src = this.data.duplicate();
+        src.clear().limit(this.elemCount * this.numConv.size);
+        ByteBuffer dst = b.createUnintializedVector(
+                1, src.remaining(), this.numConv.size);
+        dst.put(src);
+        return b.endVector();
+    }
 }
 
 
+/**
+ * Strings are held in whatever form they arrived in: as the tensor's
+ * FlatBuffer (for results), as Java strings, or as UTF-8 bytes. Each is
+ * converted only when asked for, one element at a time, so reading a few
+ * elements of a large result decodes only those.
+ */
 class StringNativeTensor extends NativeTensor {
-    final String[] data;
-    
+    // Exactly one of these holds the elements, starting at base.
+    private final StringVector wire;
+    private final String[] strings;
+    private final byte[][] utf8;
+    private final int base;
+    // Elements decoded so far, when strings is null. Racing threads may
+    // both decode an element, but they store equal strings.
+    private String[] decoded;
+
     StringNativeTensor(Tensor t) {
         fillShape(t);
-        this.data = new String[t.stringValLength()];
-        for (int i = 0; i < t.stringValLength(); i++) {
-            this.data[i] = t.stringVal(i);
-        }
+        this.wire = new StringVector(t);
+        this.strings = null;
+        this.utf8 = null;
+        this.base = 0;
     }
     
+    @Override
+    public int getType() {
+        return Type.String;
+    }
+
     StringNativeTensor(Object ary) {
         fillShape(ary);
-        this.data = new String[this.elemCount];
+        this.wire = null;
+        this.strings = new String[this.elemCount];
+        this.utf8 = null;
+        this.base = 0;
         fillFrom(ary, 0, 0);
     }
     
     StringNativeTensor(Object ary, long[] shape) {
-        this.elemCount = Array.getLength(ary);
+        this.elemCount = ((Object[])ary).length;
+        for (long l : shape) this.shape.add(l);
+        this.wire = null;
+        this.strings = new String[this.elemCount];
+        this.utf8 = null;
+        this.base = 0;
+        System.arraycopy(ary, 0, this.strings, 0, this.elemCount);
+    }
+
+    StringNativeTensor(byte[][] utf8, long[] shape) {
+        this.elemCount = utf8.length;
+        long count = 1;
+        for (long l : shape) {
+            this.shape.add(l);
+            count *= l;
+        }
+        if (count != utf8.length) {
+            throw new IllegalArgumentException("Shape " + Arrays.toString(shape)
+                    + " needs " + count + " strings, but got " + utf8.length);
+        }
+        this.wire = null;
+        this.strings = null;
+        this.utf8 = utf8.clone();
+        this.base = 0;
+    }
+
+    // A view of elements [base, base + count) of another tensor.
+    private StringNativeTensor(
+            StringNativeTensor src, int base, int count, long[] shape) {
+        this.elemCount = count;
         for (long l : shape) this.shape.add(l);
-        this.data = new String[this.elemCount];
-        System.arraycopy(ary, 0, this.data, 0, this.elemCount);
+        this.wire = src.wire;
+        this.strings = src.strings;
+        this.utf8 = src.utf8;
+        this.base = src.base + base;
+    }
+
+    String string(int i) {
+        if (this.strings != null) {
+            return this.strings[this.base + i];
+        }
+        String[] cache = this.decoded;
+        if (cache == null) {
+            cache = new String[this.elemCount];
+            this.decoded = cache;
+        }
+        String s = cache[i];
+        if (s == null) {
+            s = this.wire != null
+                    ? this.wire.string(this.base + i)
+                    : new String(this.utf8[this.base + i],
+                            StandardCharsets.UTF_8);
+            cache[i] = s;
+        }
+        return s;
+    }
+
+    ByteBuffer utf8(int i) {
+        if (this.wire != null) {
+            return this.wire.utf8(this.base + i);
+        }
+        byte[] bytes = this.utf8 != null
+                ? this.utf8[this.base + i]
+                : this.strings[this.base + i].getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String getString(long... index) {
+        return string(flatIndex(index));
+    }
+
+    @Override
+    public ByteBuffer getUtf8(long... index) {
+        return utf8(flatIndex(index));
     }
 
     private int fillFrom(Object ary, int dim, int idx) {
-        int len = Array.getLength(ary);
+        Object[] rows = (Object[])ary;
+        int len = rows.length;
         if (this.shape.get(dim) != len) {
             throw new IllegalArgumentException("Array is not rectangular");
         }
         
         if (dim == this.shape.size() - 1) {
-            System.arraycopy(ary, 0, this.data, idx, len);
+            System.arraycopy(rows, 0, this.strings, idx, len);
             return idx + len;
         } else {
-            for (int i = 0; i < this.shape.get(dim); i++) {
-                idx = fillFrom(Array.get(ary, i), dim + 1, idx);
+            for (Object row : rows) {
+                idx = fillFrom(row, dim + 1, idx);
             }
         }
         return idx;
     }
     
     private int fillTo(Object ary, int dim, int idx) {
+        Object[] rows = (Object[])ary;
         if (dim == this.shape.size() - 1) {
-            int len = Array.getLength(ary);
-            System.arraycopy(this.data, idx, ary, 0, len);
-            return idx + len;
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = string(idx + i);
+            }
+            return idx + rows.length;
         } else {
-            for (int i = 0; i < this.shape.get(dim); i++) {
-                idx = fillTo(Array.get(ary, i), dim + 1, idx);
+            for (Object row : rows) {
+                idx = fillTo(row, dim + 1, idx);
             }
         }
         return idx;
@@ -283,21 +1014,66 @@ class StringNativeTensor extends NativeTensor {
         fillTo(ary, 0, 0);
         return ary;
     }
+
+    // Shares this tensor's elements; nothing is decoded or copied.
+    NativeTensor sliceRows(long start, long count) {
+        long[] newShape = rowSliceShape(start, count);
+        int rowElems = rowElems();
+        return new StringNativeTensor(this, (int)(start * rowElems),
+                (int)(count * rowElems), newShape);
+    }
     
     public INDArray toINDArray() {
         throw new UnsupportedOperationException();
     }
 
     public Object toFlatArray() {
-        return Arrays.copyOf(this.data, this.data.length, String[].class);
+        String[] ary = new String[this.elemCount];
+        for (int i = 0; i < ary.length; i++) {
+            ary[i] = string(i);
+        }
+        return ary;
     }
     
+    long serializedSize() {
+        long size = this.shape.size() * 8 + 64;
+        // Each element costs its UTF-8 bytes plus at most 12: a 4-byte
+        // length prefix, a NUL, up to 3 bytes of padding and a 4-byte slot
+        // in the vector. A String's length() is its UTF-8 length only if
+        // it is ASCII, so for other Strings this is an underestimate.
+        for (int i = 0; i < this.elemCount; i++) {
+            if (this.strings != null) {
+                size += this.strings[this.base + i].length() + 12;
+            } else if (this.wire != null) {
+                size += this.wire.utf8Length(this.base + i) + 12;
+            } else {
+                size += this.utf8[this.base + i].length + 12;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    void hashInto(Murmur3 h) {
+        hashHeader(h);
+        // Length-prefixed, so ["ab", "c"] and ["a", "bc"] differ. Only
+        // tensors made from Java strings encode anything here.
+        for (int i = 0; i < this.elemCount; i++) {
+            ByteBuffer bb = utf8(i);
+            h.update(bb.remaining());
+            h.update(bb);
+        }
+    }
+
     public int Build(FlatBufferBuilder b) {
         int shapeOffset = Tensor.createShapeVector(b, shapeAsArray());
 
-        int[] stringOffsets = new int[data.length];
-        for (int i = 0; i < data.length; i++) {
-            stringOffsets[i] = b.createString(data[i]);
+        // Encoded strings are copied across as they are.
+        int[] stringOffsets = new int[this.elemCount];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = this.strings != null
+                    ? b.createString(this.strings[this.base + i])
+                    : b.createString(utf8(i));
         }
         int stringOffset = Tensor.createStringValVector(b, stringOffsets);
 
@@ -307,4 +1083,4 @@ class StringNativeTensor extends NativeTensor {
         Tensor.addStringVal(b, stringOffset);
         return Tensor.endTensor(b);
     }
-}
\ No newline at end of file
+}
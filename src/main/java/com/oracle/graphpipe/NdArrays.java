@@ -0,0 +1,107 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Moves tensors between GraphPipe and nd4j, keeping the element type.
+ *
+ * nd4j keeps its data off-heap in native byte order, which on every
+ * platform nd4j supports is little-endian, the same as GraphPipe. So a
+ * row-major, contiguous INDArray is wrapped in place. Going the other way
+ * takes one bulk copy: nd4j can't hold on to a buffer it didn't allocate,
+ * so it gets memory of its own.
+ */
+class NdArrays {
+    private static final boolean NATIVE_LE =
+            ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    static NumericNativeTensor fromINDArray(INDArray ndAry) {
+        NumConverter nc = numConverter(ndAry.data().dataType());
+        if (!isRowMajorContiguous(ndAry)) {
+            // Permuted, transposed or strided: let nd4j lay it out once.
+            ndAry = ndAry.dup('c');
+        }
+        long[] shape = NativeTensor.intsToLongs(ndAry.shape());
+        long bytes = (long)ndAry.length() * nc.size;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "INDArray too large: " + bytes + " bytes");
+        }
+
+        ByteBuffer all = ndAry.data().asNio().duplicate();
+        all.position((int)(ndAry.offset() * nc.size));
+        all.limit(all.position() + (int)bytes);
+        ByteBuffer data = all.slice();
+        if (!NATIVE_LE) {
+            data = ByteBuffer.allocate((int)bytes);
+            swapInto(all.order(ByteOrder.BIG_ENDIAN), data, nc.size);
+        }
+        // The tensor keeps the INDArray, and so its memory, alive.
+        return new NumericNativeTensor(data, shape, nc, null, ndAry);
+    }
+
+    static INDArray toINDArray(NumericNativeTensor t, DataBuffer.Type type) {
+        DataBuffer db = type == DataBuffer.Type.DOUBLE
+                ? Nd4j.getDataBufferFactory().createDouble(t.elemCount)
+                : Nd4j.getDataBufferFactory().createFloat(t.elemCount);
+        ByteBuffer src = t.asByteBuffer();
+        ByteBuffer dst = db.asNio();
+        if (NATIVE_LE) {
+            dst.put(src);
+        } else {
+            swapInto(src, dst, t.numConv.size);
+        }
+        return Nd4j.create(db, t.shapeAsIntArray());
+    }
+
+    private static NumConverter numConverter(DataBuffer.Type type) {
+        switch (type) {
+            case FLOAT:
+                return NumConverters.byClass(float.class);
+            case DOUBLE:
+                return NumConverters.byClass(double.class);
+            case INT:
+                return NumConverters.byClass(int.class);
+            case LONG:
+                return NumConverters.byClass(long.class);
+            case HALF:
+                return NumConverters.FLOAT16;
+            default:
+                throw new IllegalArgumentException(
+                        "Cannot convert INDArray of type " + type);
+        }
+    }
+
+    // Whether element i of the array sits at offset + i in its buffer.
+    private static boolean isRowMajorContiguous(INDArray ndAry) {
+        int[] shape = ndAry.shape();
+        int[] stride = ndAry.stride();
+        long expected = 1;
+        for (int i = shape.length - 1; i >= 0; i--) {
+            if (shape[i] != 1 && stride[i] != expected) {
+                return false;
+            }
+            expected *= shape[i];
+        }
+        return true;
+    }
+
+    // Copies elements of the given size, reversing the bytes of each.
+    private static void swapInto(ByteBuffer src, ByteBuffer dst, int size) {
+        for (int i = src.position(); i < src.limit(); i += size) {
+            for (int j = size - 1; j >= 0; j--) {
+                dst.put(src.get(i + j));
+            }
+        }
+        dst.flip();
+    }
+}
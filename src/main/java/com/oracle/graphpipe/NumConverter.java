@@ -5,11 +5,18 @@
 package com.oracle.graphpipe;
 
 import com.oracle.graphpipefb.Type;
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
 
 import java.lang.reflect.Array;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,12 +37,21 @@ abstract class NumConverter {
         this.size = size;
     }
 
-    abstract void get(ByteBuffer bb, Object ary);
-    abstract void put(ByteBuffer bb, Object ary);
+    /**
+     * A view of the tensor data typed for this converter, starting at the
+     * buffer's position. Conversions make one view per tensor and then
+     * move through it row by row, so no per-row buffer is allocated, and
+     * the tensor's own buffer is never repositioned.
+     */
+    abstract Buffer view(ByteBuffer bb);
 
-    void advance(ByteBuffer bb, Object ary) {
-        bb.position(bb.position() + Array.getLength(ary) * this.size);
-    }
+    // Bulk copies between a primitive array (e.g. one row of a float[][])
+    // and the view, starting at and advancing the view's position.
+    abstract void get(Buffer view, Object ary);
+    abstract void put(Buffer view, Object ary);
+
+    // Array.getLength() without the reflection.
+    abstract int length(Object ary);
 
     INDArray buildINDArray(NumericNativeTensor t) {
         // Only float[] and double[] are supported by Nd4j.
@@ -44,14 +60,17 @@ abstract class NumConverter {
     
     Object toFlatArray(NumericNativeTensor t) {
         Object ary = Array.newInstance(clazz, t.elemCount);
-        get(t.data, ary);
-        t.data.rewind();
+        get(view(t.data), ary);
         return ary;
     }
     
     Object createNDArray(int[] shape) {
         return Array.newInstance(clazz, shape);
     }
+
+    static ByteBuffer littleEndian(ByteBuffer bb) {
+        return bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
 }
 
 class NumConverters {
@@ -60,6 +79,38 @@ class NumConverters {
     private static final Map<Integer, NumConverter> byType = new HashMap<>();
     private static final Map<Integer, NumConverter> bySize = new HashMap<>();
 
+    // Float16 elements are read and written as Java floats. It's registered
+    // by type only: float[] input still means Float32 unless the caller asks
+    // for halves (see NativeTensor.toFloat16()).
+    static final NumConverter FLOAT16 =
+            new NumConverter(float.class, Type.Float16, 2) {
+        Buffer view(ByteBuffer bb) {
+            return littleEndian(bb).asShortBuffer();
+        }
+        void get(Buffer view, Object ary) {
+            ShortBuffer sb = (ShortBuffer)view;
+            float[] floats = (float[])ary;
+            for (int i = 0; i < floats.length; i++) {
+                floats[i] = HalfFloats.toFloat(sb.get());
+            }
+        }
+        void put(Buffer view, Object ary) {
+            ShortBuffer sb = (ShortBuffer)view;
+            float[] floats = (float[])ary;
+            for (int i = 0; i < floats.length; i++) {
+                sb.put(HalfFloats.fromFloat(floats[i]));
+            }
+        }
+        int length(Object ary) {
+            return ((float[])ary).length;
+        }
+        INDArray buildINDArray(NumericNativeTensor t) {
+            // nd4j's own half support is limited; hand it floats.
+            return NdArrays.toINDArray(
+                    (NumericNativeTensor)t.toFloat32(), DataBuffer.Type.FLOAT);
+        }
+    };
+
     /*
     From the FlatBuffer def: 
     
@@ -80,62 +131,93 @@ class NumConverters {
     */
     static {
         all.add(new NumConverter(byte.class, Type.Int8, 1) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.get((byte[])ary);
+            Buffer view(ByteBuffer bb) {
+                return bb.duplicate();
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.put((byte[]) ary);
+            void get(Buffer view, Object ary) {
+                ((ByteBuffer)view).get((byte[])ary);
             }
-            void advance(ByteBuffer bb, Object ary) {
-                // No-op because put() and get() already advance.
+            void put(Buffer view, Object ary) {
+                ((ByteBuffer)view).put((byte[])ary);
+            }
+            int length(Object ary) {
+                return ((byte[])ary).length;
             }
         });
         all.add(new NumConverter(short.class, Type.Int16, 2) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.asShortBuffer().get((short[])ary);
+            Buffer view(ByteBuffer bb) {
+                return littleEndian(bb).asShortBuffer();
+            }
+            void get(Buffer view, Object ary) {
+                ((ShortBuffer)view).get((short[])ary);
+            }
+            void put(Buffer view, Object ary) {
+                ((ShortBuffer)view).put((short[])ary);
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.asShortBuffer().put((short[]) ary);
+            int length(Object ary) {
+                return ((short[])ary).length;
             }
         });
         all.add(new NumConverter(int.class, Type.Int32, 4) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.asIntBuffer().get((int[]) ary);
+            Buffer view(ByteBuffer bb) {
+                return littleEndian(bb).asIntBuffer();
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.asIntBuffer().put((int[]) ary);
+            void get(Buffer view, Object ary) {
+                ((IntBuffer)view).get((int[])ary);
+            }
+            void put(Buffer view, Object ary) {
+                ((IntBuffer)view).put((int[])ary);
+            }
+            int length(Object ary) {
+                return ((int[])ary).length;
             }
         });
         all.add(new NumConverter(long.class, Type.Int64, 8) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.asLongBuffer().get((long[]) ary);
+            Buffer view(ByteBuffer bb) {
+                return littleEndian(bb).asLongBuffer();
+            }
+            void get(Buffer view, Object ary) {
+                ((LongBuffer)view).get((long[])ary);
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.asLongBuffer().put((long[]) ary);
+            void put(Buffer view, Object ary) {
+                ((LongBuffer)view).put((long[])ary);
+            }
+            int length(Object ary) {
+                return ((long[])ary).length;
             }
         });
         all.add(new NumConverter(float.class, Type.Float32, 4) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.asFloatBuffer().get((float[]) ary);
+            Buffer view(ByteBuffer bb) {
+                return littleEndian(bb).asFloatBuffer();
+            }
+            void get(Buffer view, Object ary) {
+                ((FloatBuffer)view).get((float[])ary);
+            }
+            void put(Buffer view, Object ary) {
+                ((FloatBuffer)view).put((float[])ary);
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.asFloatBuffer().put((float[]) ary);
+            int length(Object ary) {
+                return ((float[])ary).length;
             }
             INDArray buildINDArray(NumericNativeTensor t) {
-                return Nd4j.create(
-                        (float[])toFlatArray(t), t.shapeAsIntArray());
+                return NdArrays.toINDArray(t, DataBuffer.Type.FLOAT);
             }
         });
         all.add(new NumConverter(double.class, Type.Float64, 8) {
-            void get(ByteBuffer bb, Object ary) {
-                bb.asDoubleBuffer().get((double[]) ary);
+            Buffer view(ByteBuffer bb) {
+                return littleEndian(bb).asDoubleBuffer();
+            }
+            void get(Buffer view, Object ary) {
+                ((DoubleBuffer)view).get((double[])ary);
+            }
+            void put(Buffer view, Object ary) {
+                ((DoubleBuffer)view).put((double[])ary);
             }
-            void put(ByteBuffer bb, Object ary) {
-                bb.asDoubleBuffer().put((double[]) ary);
+            int length(Object ary) {
+                return ((double[])ary).length;
             }
             INDArray buildINDArray(NumericNativeTensor t) {
-                return Nd4j.create(
-                        (double[])toFlatArray(t), t.shapeAsIntArray());
+                return NdArrays.toINDArray(t, DataBuffer.Type.DOUBLE);
             }
         });
     }
@@ -146,6 +228,7 @@ class NumConverters {
             byType.put(nc.type, nc);
             bySize.put(nc.size, nc);
         }
+        byType.put(FLOAT16.type, FLOAT16);
     }
     
     static NumConverter byClass(Class<?> clazz) {
@@ -6,14 +6,7 @@ package com.oracle.graphpipe;
 
 import com.google.flatbuffers.FlatBufferBuilder;
 import com.oracle.graphpipefb.*;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-
-import java.io.ByteArrayOutputStream;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -24,7 +17,19 @@ public class Remote {
     public static ByteBuffer BuildRequest(
             String config, List<NativeTensor> inputs, List<String> inputNames, 
             List<String> outputNames) {
-        FlatBufferBuilder b = new FlatBufferBuilder(1024);
+        FlatBufferBuilder b = new FlatBufferBuilder(
+                estimateRequestSize(config, inputs, inputNames, outputNames));
+        return BuildRequest(b, config, inputs, inputNames, outputNames);
+    }
+
+    /**
+     * Encodes the request into the given (empty) builder. The returned
+     * buffer is the builder's own, so it is only valid until the builder is
+     * reused.
+     */
+    public static ByteBuffer BuildRequest(
+            FlatBufferBuilder b, String config, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
 
         int[] inputNameOffsets = new int[inputNames.size()];
         for (int i = 0; i < inputNames.size(); i++) {
@@ -62,6 +67,60 @@ public class Remote {
         return b.dataBuffer();
     }
     
+    // Enough room for the whole request, so the builder never has to grow.
+    // Non-ASCII names and strings may still need a little more.
+    static int estimateRequestSize(
+            String config, List<NativeTensor> inputs, List<String> inputNames,
+            List<String> outputNames) {
+        long size = 64 + config.length();
+        for (String name : inputNames) {
+            size += name.length() + 12;
+        }
+        for (String name : outputNames) {
+            size += name.length() + 12;
+        }
+        for (NativeTensor t : inputs) {
+            size += t.serializedSize() + 4;
+        }
+        return (int)Math.min(size, Integer.MAX_VALUE - 8);
+    }
+
+    public static List<NativeTensor> ParseResponse(ByteBuffer resp) {
+        InferResponse ir = InferResponse.getRootAsInferResponse(resp);
+
+        List<NativeTensor> nTensors = new ArrayList<>(ir.outputTensorsLength());
+        for (int i = 0; i < ir.outputTensorsLength(); i++) {
+            Tensor t = ir.outputTensors(i);
+            nTensors.add(NativeTensor.fromTensor(t));
+        }
+        return nTensors;
+    }
+
+    public static ByteBuffer BuildMetadataRequest() {
+        FlatBufferBuilder b = new FlatBufferBuilder(64);
+        MetadataRequest.startMetadataRequest(b);
+        int metadataRequestOffset = MetadataRequest.endMetadataRequest(b);
+        Request.startRequest(b);
+        Request.addReqType(b, Req.MetadataRequest);
+        Request.addReq(b, metadataRequestOffset);
+        int requestOffset = Request.endRequest(b);
+        Request.finishRequestBuffer(b, requestOffset);
+        return b.dataBuffer();
+    }
+
+    public static ModelMetadata ParseMetadataResponse(ByteBuffer resp) {
+        return ModelMetadata.fromResponse(
+                MetadataResponse.getRootAsMetadataResponse(resp));
+    }
+
+    /**
+     * Fetches the model's metadata, or returns it from the default client's
+     * cache.
+     */
+    public static ModelMetadata GetMetadata(String uri) throws IOException {
+        return GraphPipeClient.getDefault().getMetadata(uri);
+    }
+
     public static NativeTensor Execute(String uri, NativeTensor input) 
             throws IOException {
         List<NativeTensor> inputs = Collections.singletonList(input);
@@ -93,29 +152,7 @@ public class Remote {
             String config, String uri, List<NativeTensor> inputs,
             List<String> inputNames, List<String> outputNames)
             throws IOException {
-        ByteBuffer req = BuildRequest(config, inputs, inputNames, outputNames);
-        
-        byte[] arr = new byte[req.remaining()];
-        req.get(arr);
-
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        HttpPost post = new HttpPost(uri);
-        HttpEntity entity = new ByteArrayEntity(arr);
-        post.setEntity(entity);
-        CloseableHttpResponse response = httpclient.execute(post);
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        response.getEntity().writeTo(baos);
-        
-        byte[] respBytes = baos.toByteArray();
-        ByteBuffer respBB = ByteBuffer.wrap(respBytes);
-        InferResponse ir = InferResponse.getRootAsInferResponse(respBB);
-       
-        List<NativeTensor> nTensors = new ArrayList<>(ir.outputTensorsLength());
-        for (int i = 0; i < ir.outputTensorsLength(); i++) {
-            Tensor t = ir.outputTensors(0);
-            nTensors.add(NativeTensor.fromTensor(t));
-        }
-        return nTensors;
+        return GraphPipeClient.getDefault().executeMulti(
+                config, uri, inputs, inputNames, outputNames);
     }
 }
@@ -0,0 +1,194 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a response body exactly once, into a single buffer sized from its
+ * Content-Length. The InferResponse and the NativeTensors decoded from it
+ * are views into that buffer, so the payload is never copied again.
+ */
+class ResponseReader {
+    // Starting size when the server doesn't send a Content-Length.
+    private static final int UNKNOWN_LENGTH_SIZE = 8192;
+
+    private final boolean direct;
+
+    ResponseReader(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * Reads the entity from a blocking response. The returned buffer is
+     * positioned at the start of the body.
+     */
+    ByteBuffer read(HttpEntity entity) throws IOException {
+        long len = entity.getContentLength();
+        ByteBuffer bb = allocate(len);
+        try (InputStream in = entity.getContent()) {
+            if (bb.hasArray()) {
+                return readHeap(in, bb, len >= 0);
+            } else {
+                return readDirect(Channels.newChannel(in), bb, len >= 0);
+            }
+        }
+    }
+
+    private ByteBuffer readHeap(InputStream in, ByteBuffer bb, boolean exact)
+            throws IOException {
+        while (true) {
+            if (!bb.hasRemaining()) {
+                if (exact) {
+                    break;
+                }
+                bb = grow(bb);
+            }
+            int n = in.read(bb.array(), bb.arrayOffset() + bb.position(),
+                    bb.remaining());
+            if (n < 0) {
+                break;
+            }
+            bb.position(bb.position() + n);
+        }
+        return finish(bb, exact);
+    }
+
+    private ByteBuffer readDirect(
+            ReadableByteChannel ch, ByteBuffer bb, boolean exact)
+            throws IOException {
+        while (true) {
+            if (!bb.hasRemaining()) {
+                if (exact) {
+                    break;
+                }
+                bb = grow(bb);
+            }
+            if (ch.read(bb) < 0) {
+                break;
+            }
+        }
+        return finish(bb, exact);
+    }
+
+    private ByteBuffer finish(ByteBuffer bb, boolean exact) throws IOException {
+        if (exact && bb.hasRemaining()) {
+            throw new EOFException("Response ended after " + bb.position()
+                    + " of " + bb.capacity() + " bytes");
+        }
+        bb.flip();
+        return bb;
+    }
+
+    private ByteBuffer allocate(long contentLength) throws IOException {
+        if (contentLength > Integer.MAX_VALUE) {
+            throw new IOException(
+                    "Response too large: " + contentLength + " bytes");
+        }
+        int size = contentLength >= 0
+                ? (int)contentLength : UNKNOWN_LENGTH_SIZE;
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    // Only used when the length is unknown (chunked responses).
+    private ByteBuffer grow(ByteBuffer bb) throws IOException {
+        if (bb.capacity() >= Integer.MAX_VALUE / 2) {
+            throw new IOException("Response too large");
+        }
+        ByteBuffer bigger = direct
+                ? ByteBuffer.allocateDirect(bb.capacity() * 2)
+                : ByteBuffer.allocate(bb.capacity() * 2);
+        bb.flip();
+        bigger.put(bb);
+        return bigger;
+    }
+
+    HttpAsyncConsumer asyncConsumer() {
+        return new HttpAsyncConsumer();
+    }
+
+    /**
+     * The non-blocking equivalent of {@link #read}: the I/O thread decodes
+     * straight into the body buffer as data arrives. Non-200 responses
+     * complete with an IOException carrying the server's message.
+     */
+    class HttpAsyncConsumer extends AbstractAsyncResponseConsumer<ByteBuffer> {
+        private HttpResponse response;
+        private ByteBuffer body;
+        private boolean exact;
+        private volatile long responseReceivedAt;
+
+        /** System.nanoTime() when the response headers arrived. */
+        long responseReceivedAt() {
+            return responseReceivedAt;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.responseReceivedAt = System.nanoTime();
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType type)
+                throws IOException {
+            this.exact = entity.getContentLength() >= 0;
+            this.body = allocate(entity.getContentLength());
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl io)
+                throws IOException {
+            while (true) {
+                if (!body.hasRemaining()) {
+                    if (exact) {
+                        // Anything beyond Content-Length is the server's
+                        // bug; the decoder will not hand it to us.
+                        return;
+                    }
+                    body = grow(body);
+                }
+                int n = decoder.read(body);
+                if (n <= 0) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected ByteBuffer buildResult(HttpContext context) throws IOException {
+            ByteBuffer bb = body == null
+                    ? ByteBuffer.allocate(0) : finish(body, exact);
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                byte[] msg = new byte[bb.remaining()];
+                bb.get(msg);
+                throw new IOException("GraphPipe server returned " + status
+                        + ": " + new String(msg, StandardCharsets.UTF_8));
+            }
+            return bb;
+        }
+
+        @Override
+        protected void releaseResources() {
+            this.response = null;
+            this.body = null;
+        }
+    }
+}
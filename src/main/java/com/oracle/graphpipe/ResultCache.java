@@ -0,0 +1,292 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the outputs of recent inferences, so repeating one answers from
+ * memory instead of the model. Only worth it for deterministic models that
+ * see the same inputs again and again.
+ *
+ * Calls are matched by a 128-bit hash of the endpoint, config, input and
+ * output names, and every input's type, shape and elements. The elements
+ * are hashed where they lie, without copying or encoding them. Two
+ * different calls are taken to be the same if their hashes collide, which
+ * for 128 bits is vanishingly unlikely (but the hash is not cryptographic,
+ * so don't cache inputs crafted to collide).
+ *
+ * Least recently used entries are evicted once there are more than
+ * {@code maxEntries} of them or they hold more than {@code maxBytes}, and
+ * entries are dropped {@code ttl} after they were fetched. Hits return the
+ * same output tensors to every caller; tensors are immutable, and their
+ * buffer views are read-only, so sharing them is safe. Don't close them.
+ */
+public class ResultCache {
+    private final GraphPipeClient client;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    // Access-ordered: iteration starts at the least recently used entry.
+    private final LinkedHashMap<Murmur3.Hash, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private ResultCache(Builder b) {
+        this.client = b.client != null ? b.client : GraphPipeClient.getDefault();
+        this.maxEntries = b.maxEntries;
+        this.maxBytes = b.maxBytes;
+        this.ttlNanos = b.ttlNanos;
+    }
+
+    public NativeTensor execute(String uri, NativeTensor input)
+            throws IOException {
+        return executeMulti("", uri, Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList()).get(0);
+    }
+
+    public NativeTensor execute(
+            String uri, NativeTensor input, String inputName, String outputName)
+            throws IOException {
+        return executeMulti("", uri, Collections.singletonList(input),
+                Collections.singletonList(inputName),
+                Collections.singletonList(outputName)).get(0);
+    }
+
+    /** Like {@link GraphPipeClient#executeMulti}, but the result is shared. */
+    public List<NativeTensor> executeMulti(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames)
+            throws IOException {
+        Murmur3.Hash key = key(config, uri, inputs, inputNames, outputNames);
+        List<NativeTensor> outputs = get(key);
+        if (outputs != null) {
+            return outputs;
+        }
+        return put(key, client.executeMulti(
+                config, uri, inputs, inputNames, outputNames));
+    }
+
+    public CompletableFuture<NativeTensor> executeAsync(
+            String uri, NativeTensor input) {
+        return executeMultiAsync("", uri, Collections.singletonList(input),
+                Collections.emptyList(), Collections.emptyList())
+                .thenApply(outputs -> outputs.get(0));
+    }
+
+    /**
+     * Like {@link GraphPipeClient#executeMultiAsync}, but completes at once
+     * on a hit.
+     */
+    public CompletableFuture<List<NativeTensor>> executeMultiAsync(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        Murmur3.Hash key = key(config, uri, inputs, inputNames, outputNames);
+        List<NativeTensor> outputs = get(key);
+        if (outputs != null) {
+            return CompletableFuture.completedFuture(outputs);
+        }
+        return client.executeMultiAsync(
+                config, uri, inputs, inputNames, outputNames)
+                .thenApply(fetched -> put(key, fetched));
+    }
+
+    static Murmur3.Hash key(
+            String config, String uri, List<NativeTensor> inputs,
+            List<String> inputNames, List<String> outputNames) {
+        Murmur3 h = new Murmur3();
+        h.update(uri);
+        h.update(config);
+        h.update(inputNames.size());
+        for (String name : inputNames) {
+            h.update(name);
+        }
+        h.update(outputNames.size());
+        for (String name : outputNames) {
+            h.update(name);
+        }
+        h.update(inputs.size());
+        for (NativeTensor t : inputs) {
+            t.hashInto(h);
+        }
+        return h.finish();
+    }
+
+    private List<NativeTensor> get(Murmur3.Hash key) {
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null && ttlNanos > 0
+                    && System.nanoTime() - e.fetchedAt > ttlNanos) {
+                entries.remove(key);
+                bytes -= e.bytes;
+                e = null;
+            }
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return e.outputs;
+        }
+    }
+
+    private List<NativeTensor> put(Murmur3.Hash key, List<NativeTensor> fetched) {
+        List<NativeTensor> outputs = Collections.unmodifiableList(fetched);
+        long size = 0;
+        for (NativeTensor t : outputs) {
+            size += t.serializedSize();
+        }
+        if (size > maxBytes) {
+            // It would only push everything else out.
+            return outputs;
+        }
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(outputs, size));
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            bytes += size;
+            Iterator<Entry> lru = entries.values().iterator();
+            while (entries.size() > maxEntries || bytes > maxBytes) {
+                Entry e = lru.next();
+                lru.remove();
+                bytes -= e.bytes;
+                evictions.increment();
+            }
+        }
+        return outputs;
+    }
+
+    /** Drops every entry. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Calls that went to the model, including those for expired entries. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Entries pushed out to make room (expired ones don't count). */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** The fraction of calls answered from the cache, or 0 before any. */
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** The estimated size of the cached outputs, in bytes. */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "entries=%d bytes=%d hits=%d misses=%d evictions=%d"
+                        + " hit_ratio=%.3f",
+                size(), getBytes(), getHits(), getMisses(), getEvictions(),
+                getHitRatio());
+    }
+
+    private static final class Entry {
+        final List<NativeTensor> outputs;
+        final long bytes;
+        final long fetchedAt = System.nanoTime();
+
+        Entry(List<NativeTensor> outputs, long bytes) {
+            this.outputs = outputs;
+            this.bytes = bytes;
+        }
+    }
+
+    public static class Builder {
+        private GraphPipeClient client;
+        private int maxEntries = 10000;
+        private long maxBytes = 256L << 20;
+        private long ttlNanos = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * The client to send misses with. Defaults to
+         * {@link GraphPipeClient#getDefault()}.
+         */
+        public Builder client(GraphPipeClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /** The most results to keep. Defaults to 10000. */
+        public Builder maxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException(
+                        "maxEntries must be positive: " + maxEntries);
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * The most output bytes to keep, as estimated from the outputs'
+         * encoded size. Larger results aren't cached. Defaults to 256 MiB.
+         */
+        public Builder maxBytes(long maxBytes) {
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException(
+                        "maxBytes must be positive: " + maxBytes);
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * How long a result is reused after it was fetched. Defaults to
+         * forever.
+         */
+        public Builder ttl(long duration, TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public ResultCache build() {
+            return new ResultCache(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls with byte-identical requests to the same endpoint
+ * share one exchange. The first call sends; the rest wait for its response
+ * and get the same decoded tensors, each in a list of its own. Once the
+ * response arrives the next identical request is sent afresh.
+ *
+ * Requests are matched by a hash of their bytes, then compared in full.
+ */
+class SingleFlight {
+    private final ConcurrentMap<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final MetricsListener metrics;
+
+    SingleFlight(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    interface Exchange {
+        List<NativeTensor> run() throws IOException;
+    }
+
+    /**
+     * Runs the exchange on the calling thread, unless an identical request
+     * is already in flight, in which case waits for that one's response.
+     */
+    List<NativeTensor> execute(String uri, byte[] request, Exchange exchange)
+            throws IOException {
+        Key key = new Key(uri, request);
+        Flight flight = new Flight(key);
+        Flight joined = join(flight);
+        if (joined == flight) {
+            try {
+                List<NativeTensor> outputs = exchange.run();
+                flight.land(outputs, null);
+                return new ArrayList<>(outputs);
+            } catch (IOException | RuntimeException | Error e) {
+                flight.land(null, e);
+                throw e;
+            }
+        }
+        try {
+            return new ArrayList<>(joined.result.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts the exchange unless an identical request is already in flight.
+     * Cancelling the returned future cancels the exchange only once every
+     * call sharing it has been cancelled.
+     */
+    CompletableFuture<List<NativeTensor>> executeAsync(
+            String uri, byte[] request,
+            Supplier<CompletableFuture<List<NativeTensor>>> exchange) {
+        Key key = new Key(uri, request);
+        Flight flight = new Flight(key);
+        Flight joined = join(flight);
+        if (joined == flight) {
+            CompletableFuture<List<NativeTensor>> sent;
+            try {
+                sent = exchange.get();
+            } catch (RuntimeException | Error e) {
+                flight.land(null, e);
+                throw e;
+            }
+            flight.sent = sent;
+            sent.whenComplete(flight::land);
+        }
+        CompletableFuture<List<NativeTensor>> result =
+                joined.result.thenApply(ArrayList::new);
+        result.whenComplete((outputs, e) -> {
+            if (result.isCancelled()) {
+                joined.leave();
+            }
+        });
+        return result;
+    }
+
+    // Returns the flight already under way for the same request, joined, or
+    // else the given one, registered.
+    private Flight join(Flight flight) {
+        while (true) {
+            Flight current = flights.putIfAbsent(flight.key, flight);
+            if (current == null) {
+                return flight;
+            }
+            if (current.board()) {
+                metrics.onShared(flight.key.uri);
+                return current;
+            }
+            // Everyone on it gave up; it's on its way out.
+            flights.remove(flight.key, current);
+        }
+    }
+
+    private final class Flight {
+        final Key key;
+        final CompletableFuture<List<NativeTensor>> result =
+                new CompletableFuture<>();
+        // The leader's exchange, if asynchronous, to cancel if everyone
+        // leaves.
+        volatile CompletableFuture<List<NativeTensor>> sent;
+        private int passengers = 1;
+
+        Flight(Key key) {
+            this.key = key;
+        }
+
+        synchronized boolean board() {
+            if (passengers == 0) {
+                return false;
+            }
+            passengers++;
+            return true;
+        }
+
+        void leave() {
+            synchronized (this) {
+                if (--passengers > 0) {
+                    return;
+                }
+            }
+            flights.remove(key, this);
+            CompletableFuture<List<NativeTensor>> sent = this.sent;
+            if (sent != null) {
+                sent.cancel(false);
+            }
+            result.cancel(false);
+        }
+
+        void land(List<NativeTensor> outputs, Throwable error) {
+            // Later identical requests must not see this response.
+            flights.remove(key, this);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(outputs);
+            }
+        }
+    }
+
+    private static final class Key {
+        final String uri;
+        final byte[] request;
+        final Murmur3.Hash hash;
+
+        Key(String uri, byte[] request) {
+            this.uri = uri;
+            this.request = request;
+            this.hash = new Murmur3().update(uri).update(request).finish();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return hash.equals(other.hash) && uri.equals(other.uri)
+                    && Arrays.equals(request, other.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.hashCode();
+        }
+    }
+}
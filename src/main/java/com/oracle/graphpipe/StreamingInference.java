@@ -0,0 +1,301 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs a long sequence of inputs through one model with a fixed number of
+ * requests in flight, for offline scoring jobs.
+ *
+ * Results are pulled: the inputs are read only as fast as results are
+ * taken, so at most {@code parallelism} inputs and their results are held
+ * in memory however long the sequence is, and a slow consumer slows the
+ * requests down instead of piling up responses. Results come back in input
+ * order, or, with {@code ordered(false)}, as they complete, so one slow
+ * request doesn't hold back the rest.
+ *
+ * A failed request doesn't end the stream; its result carries the error.
+ */
+public class StreamingInference {
+    private final GraphPipeClient client;
+    private final String uri;
+    private final String config;
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+    private final int parallelism;
+    private final boolean ordered;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private StreamingInference(Builder b) {
+        this.client = b.client != null ? b.client : GraphPipeClient.getDefault();
+        this.uri = Objects.requireNonNull(b.uri, "uri");
+        this.config = b.config;
+        this.inputNames = b.inputNames;
+        this.outputNames = b.outputNames;
+        this.parallelism = b.parallelism;
+        this.ordered = b.ordered;
+    }
+
+    /** Runs each input tensor on its own. */
+    public Results execute(Iterator<NativeTensor> inputs) {
+        return new Results(new Iterator<List<NativeTensor>>() {
+            @Override
+            public boolean hasNext() {
+                return inputs.hasNext();
+            }
+
+            @Override
+            public List<NativeTensor> next() {
+                return Collections.singletonList(inputs.next());
+            }
+        });
+    }
+
+    /** Runs each list of input tensors as one request. */
+    public Results executeMulti(Iterator<List<NativeTensor>> inputs) {
+        return new Results(inputs);
+    }
+
+    /** Like {@link #execute}, as a sequential stream. */
+    public Stream<Result> stream(Iterator<NativeTensor> inputs) {
+        Results results = execute(inputs);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                results, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(results::close);
+    }
+
+    /** The outcome of one input. */
+    public static final class Result {
+        private final long index;
+        private final List<NativeTensor> inputs;
+        private final List<NativeTensor> outputs;
+        private final Throwable error;
+
+        private Result(long index, List<NativeTensor> inputs,
+                       List<NativeTensor> outputs, Throwable error) {
+            this.index = index;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.error = error;
+        }
+
+        /** The input's position in the sequence, from 0. */
+        public long getIndex() {
+            return index;
+        }
+
+        public List<NativeTensor> getInputs() {
+            return inputs;
+        }
+
+        /** The output tensors, or null if the request failed. */
+        public List<NativeTensor> getOutputs() {
+            return outputs;
+        }
+
+        /** The first output tensor, or null if the request failed. */
+        public NativeTensor getOutput() {
+            return outputs == null ? null : outputs.get(0);
+        }
+
+        /** Why the request failed, or null if it succeeded. */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The results of one run, to be taken by a single thread. Closing it
+     * cancels the requests still in flight and stops reading inputs.
+     */
+    public final class Results implements Iterator<Result>, AutoCloseable {
+        private final Iterator<List<NativeTensor>> inputs;
+        // In input order; when unordered, only to cancel them on close.
+        private final ArrayDeque<Call> inFlight = new ArrayDeque<>();
+        // Finished calls, when unordered.
+        private final LinkedBlockingQueue<Call> done =
+                new LinkedBlockingQueue<>();
+        private long sent;
+        private boolean closed;
+
+        private Results(Iterator<List<NativeTensor>> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Call call;
+            if (ordered) {
+                call = inFlight.peek();
+                await(call.future);
+            } else {
+                try {
+                    call = done.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(
+                            new InterruptedIOException("Interrupted"));
+                }
+            }
+            inFlight.remove(call);
+            // Start the next request before the caller gets busy with this
+            // result.
+            fill();
+            return call.result();
+        }
+
+        private void fill() {
+            while (!closed && inFlight.size() < parallelism
+                    && inputs.hasNext()) {
+                Call call = new Call(sent++, inputs.next());
+                inFlight.add(call);
+                if (!ordered) {
+                    call.future.whenComplete((outputs, e) -> done.add(call));
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (Call call : inFlight) {
+                call.future.cancel(false);
+            }
+            inFlight.clear();
+        }
+
+        private final class Call {
+            final long index;
+            final List<NativeTensor> inputs;
+            final CompletableFuture<List<NativeTensor>> future;
+
+            Call(long index, List<NativeTensor> inputs) {
+                this.index = index;
+                this.inputs = inputs;
+                this.future = client.executeMultiAsync(
+                        config, uri, inputs, inputNames, outputNames);
+            }
+
+            Result result() {
+                try {
+                    return new Result(index, inputs, future.join(), null);
+                } catch (CompletionException e) {
+                    return new Result(index, inputs, null, e.getCause());
+                } catch (RuntimeException e) {
+                    return new Result(index, inputs, null, e);
+                }
+            }
+        }
+    }
+
+    private static void await(CompletableFuture<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(
+                    new InterruptedIOException("Interrupted"));
+        } catch (ExecutionException e) {
+            // Reported by the result.
+        }
+    }
+
+    public static class Builder {
+        private GraphPipeClient client;
+        private String uri;
+        private String config = "";
+        private List<String> inputNames = Collections.emptyList();
+        private List<String> outputNames = Collections.emptyList();
+        private int parallelism = 16;
+        private boolean ordered = true;
+
+        private Builder() {
+        }
+
+        /**
+         * The client to send with. Defaults to
+         * {@link GraphPipeClient#getDefault()}. Its
+         * {@link GraphPipeClient.Builder#maxInFlightPerEndpoint} should be
+         * at least the parallelism, or requests queue in the client.
+         */
+        public Builder client(GraphPipeClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /** The model's URI. Required. */
+        public Builder uri(String uri) {
+            this.uri = uri;
+            return this;
+        }
+
+        public Builder config(String config) {
+            this.config = config;
+            return this;
+        }
+
+        public Builder inputNames(List<String> inputNames) {
+            this.inputNames = new ArrayList<>(inputNames);
+            return this;
+        }
+
+        public Builder outputNames(List<String> outputNames) {
+            this.outputNames = new ArrayList<>(outputNames);
+            return this;
+        }
+
+        /** How many requests to keep in flight. Defaults to 16. */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException(
+                        "parallelism must be positive: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Whether results come back in input order (the default) or as
+         * they complete.
+         */
+        public Builder ordered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        public StreamingInference build() {
+            return new StreamingInference(this);
+        }
+    }
+}
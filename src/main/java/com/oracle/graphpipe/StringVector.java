@@ -0,0 +1,72 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.google.flatbuffers.Table;
+import com.oracle.graphpipefb.Tensor;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * The stringVal vector of a Tensor, read in place.
+ *
+ * The generated Tensor class can only hand out strings already decoded;
+ * this reads the same vector but can also return each element's UTF-8
+ * bytes as a slice of the message. It subclasses Table for the FlatBuffers
+ * offset arithmetic.
+ */
+class StringVector extends Table {
+    // Tensor.stringVal is field 3, at vtable offset 4 + 2 * 3.
+    private static final int STRING_VAL = 10;
+    private static final Field BB_POS = tablePosition();
+
+    private final int vector;
+    private final int length;
+
+    StringVector(Tensor t) {
+        this.bb = t.getByteBuffer();
+        try {
+            this.bb_pos = BB_POS.getInt(t);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        int o = __offset(STRING_VAL);
+        this.vector = o != 0 ? __vector(o) : 0;
+        this.length = o != 0 ? __vector_len(o) : 0;
+    }
+
+    // Table doesn't expose where an instance starts.
+    private static Field tablePosition() {
+        try {
+            Field f = Table.class.getDeclaredField("bb_pos");
+            f.setAccessible(true);
+            return f;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int length() {
+        return length;
+    }
+
+    String string(int i) {
+        return __string(vector + i * 4);
+    }
+
+    /** A read-only view of element i's UTF-8 bytes. */
+    ByteBuffer utf8(int i) {
+        int pos = __indirect(vector + i * 4);
+        ByteBuffer s = bb.asReadOnlyBuffer();
+        s.limit(pos + 4 + bb.getInt(pos));
+        s.position(pos + 4);
+        return s.slice();
+    }
+
+    int utf8Length(int i) {
+        return bb.getInt(__indirect(vector + i * 4));
+    }
+}
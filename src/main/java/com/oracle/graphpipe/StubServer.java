@@ -0,0 +1,188 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.oracle.graphpipefb.InferRequest;
+import com.oracle.graphpipefb.InferResponse;
+import com.oracle.graphpipefb.MetadataResponse;
+import com.oracle.graphpipefb.Req;
+import com.oracle.graphpipefb.Request;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local GraphPipe server for trying out clients and load tests without a
+ * model. Every inference returns its input tensors as its outputs, after an
+ * optional fixed delay that stands in for the model's service time.
+ *
+ * Run {@code java com.oracle.graphpipe.StubServer [--port N]
+ * [--delay-ms N]} to serve on a fixed port.
+ *
+ * The JDK server sends small responses subject to Nagle's algorithm, so
+ * each one waits out the client's delayed ACK (tens of milliseconds)
+ * unless {@code sun.net.httpserver.nodelay} is true. {@link #main} sets
+ * it. When embedding the server, run the JVM with
+ * {@code -Dsun.net.httpserver.nodelay=true} instead: the JDK reads the
+ * property once, when the first server is created, and it applies to
+ * every {@code HttpServer} in the process.
+ */
+public class StubServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long delayNanos;
+
+    /** Serves on an ephemeral port on 127.0.0.1. */
+    public StubServer() throws IOException {
+        this(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    public StubServer(InetSocketAddress address) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/", this::handle);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "graphpipe-stub");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String uri() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    /** How long each inference waits before responding. */
+    public void setDelay(long delay, TimeUnit unit) {
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    /** Number of requests answered so far. */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            Request r = Request.getRootAsRequest(ByteBuffer.wrap(body));
+            byte[] resp;
+            if (r.reqType() == Req.MetadataRequest) {
+                resp = metadata();
+            } else {
+                InferRequest ir = new InferRequest();
+                r.req(ir);
+                resp = echo(ir, body.length);
+                long delay = delayNanos;
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+            }
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, resp.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(resp);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // A request that isn't a GraphPipe FlatBuffer.
+            byte[] msg = String.valueOf(e).getBytes("UTF-8");
+            exchange.sendResponseHeaders(400, msg.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(msg);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The response to an inference: its inputs as outputs.
+    static byte[] echo(InferRequest ir, int requestSize) {
+        FlatBufferBuilder b = new FlatBufferBuilder(requestSize + 1024);
+        int[] offsets = new int[ir.inputTensorsLength()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = NativeTensor.fromTensor(ir.inputTensors(i)).Build(b);
+        }
+        int outputs = InferResponse.createOutputTensorsVector(b, offsets);
+        InferResponse.startInferResponse(b);
+        InferResponse.addOutputTensors(b, outputs);
+        b.finish(InferResponse.endInferResponse(b));
+        return b.sizedByteArray();
+    }
+
+    private static byte[] metadata() {
+        FlatBufferBuilder b = new FlatBufferBuilder(256);
+        int name = b.createString("stub");
+        int version = b.createString("1");
+        int server = b.createString("StubServer");
+        int description = b.createString(
+                "Returns its inputs as its outputs");
+        int inputs = MetadataResponse.createInputsVector(b, new int[0]);
+        int outputs = MetadataResponse.createOutputsVector(b, new int[0]);
+        b.finish(MetadataResponse.createMetadataResponse(
+                b, name, version, server, description, inputs, outputs));
+        return b.sizedByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Turns off Nagle's algorithm for every HttpServer in this JVM. Only for
+    // command-line entry points, before any server has been created.
+    static void useNoDelay() {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public static void main(String[] args) throws IOException {
+        useNoDelay();
+        int port = 9000;
+        long delayMillis = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--delay-ms":
+                    delayMillis = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println(
+                            "usage: StubServer [--port N] [--delay-ms N]");
+                    System.exit(2);
+            }
+        }
+        StubServer s = new StubServer(new InetSocketAddress(port));
+        s.setDelay(delayMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Serving on " + s.uri());
+    }
+}
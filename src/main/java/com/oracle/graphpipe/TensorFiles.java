@@ -0,0 +1,121 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.oracle.graphpipefb.InferRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes files of named tensors.
+ *
+ * A file is a finished InferRequest FlatBuffer (with file identifier
+ * "GPTF") whose input names index its input tensors, so each tensor is
+ * stored in exactly the layout it has on the wire. Mapping a file just
+ * wraps it: numeric tensors are views into the mapping and are paged in as
+ * they are read.
+ *
+ * FlatBuffers uses 32-bit offsets, so a file (all of its tensors together)
+ * must be smaller than 2 GB.
+ */
+class TensorFiles {
+    static final String FILE_IDENTIFIER = "GPTF";
+
+    static void save(Path path, Map<String, NativeTensor> tensors)
+            throws IOException {
+        long size = 64;
+        for (Map.Entry<String, NativeTensor> e : tensors.entrySet()) {
+            size += e.getKey().length() + 12 + e.getValue().serializedSize();
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(
+                    "Tensors too large for one file: " + size + " bytes");
+        }
+
+        // Build off-heap so the (possibly huge) payload goes straight from
+        // the builder to the file.
+        FlatBufferBuilder b = new FlatBufferBuilder((int)size,
+                capacity -> ByteBuffer.allocateDirect(capacity)
+                        .order(ByteOrder.LITTLE_ENDIAN));
+        int[] nameOffsets = new int[tensors.size()];
+        int[] tensorOffsets = new int[tensors.size()];
+        int i = 0;
+        for (Map.Entry<String, NativeTensor> e : tensors.entrySet()) {
+            nameOffsets[i] = b.createString(e.getKey());
+            tensorOffsets[i] = e.getValue().Build(b);
+            i++;
+        }
+        int namesOffset = InferRequest.createInputNamesVector(b, nameOffsets);
+        int tensorsOffset =
+                InferRequest.createInputTensorsVector(b, tensorOffsets);
+        InferRequest.startInferRequest(b);
+        InferRequest.addInputNames(b, namesOffset);
+        InferRequest.addInputTensors(b, tensorsOffset);
+        b.finish(InferRequest.endInferRequest(b), FILE_IDENTIFIER);
+
+        ByteBuffer bb = b.dataBuffer();
+        try (FileChannel ch = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = bb.duplicate();
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+        } finally {
+            DirectBuffers.free(bb);
+        }
+    }
+
+    /**
+     * @return The file's tensors, by name, in the order they were saved.
+     */
+    static Map<String, NativeTensor> map(Path path) throws IOException {
+        MappedByteBuffer mbb;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a tensor file");
+            }
+            // The mapping stays valid after the channel is closed.
+            mbb = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mbb.order(ByteOrder.LITTLE_ENDIAN);
+        if (!hasIdentifier(mbb)) {
+            throw new IOException(path + " is not a tensor file");
+        }
+
+        InferRequest ir = InferRequest.getRootAsInferRequest(mbb);
+        Map<String, NativeTensor> tensors =
+                new LinkedHashMap<>(ir.inputTensorsLength() * 2);
+        for (int i = 0; i < ir.inputTensorsLength(); i++) {
+            tensors.put(ir.inputNames(i),
+                    NativeTensor.fromTensor(ir.inputTensors(i)));
+        }
+        return tensors;
+    }
+
+    private static boolean hasIdentifier(ByteBuffer bb) {
+        byte[] id = FILE_IDENTIFIER.getBytes(StandardCharsets.US_ASCII);
+        if (bb.remaining() < 4 + id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (bb.get(bb.position() + 4 + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
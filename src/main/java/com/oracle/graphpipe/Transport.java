@@ -0,0 +1,37 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries encoded GraphPipe requests to a model server and brings back the
+ * responses. A {@link GraphPipeClient} uses its own pooled HTTP/1.1
+ * transport unless given another with {@link GraphPipeClient.Builder#transport};
+ * {@link Http2Transport} multiplexes requests over one HTTP/2 connection per
+ * endpoint.
+ *
+ * Implementations must be thread-safe. The request buffer holds the
+ * encoded {@code Request} from its position to its limit; it must not be
+ * modified, and must not be read after the exchange has finished, because
+ * the client reuses it. The returned buffer holds just the response body.
+ */
+public interface Transport extends Closeable {
+    /** Sends the request and waits for the response. */
+    ByteBuffer exchange(String uri, ByteBuffer request) throws IOException;
+
+    /**
+     * Sends the request without blocking. Cancelling the returned future
+     * should abort the exchange.
+     */
+    CompletableFuture<ByteBuffer> exchangeAsync(String uri, ByteBuffer request);
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,238 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Transport} that speaks HTTP/1.1 over Unix domain sockets, for
+ * model servers running on the same host: calls skip the loopback TCP stack
+ * and no port has to be set aside. URIs name the socket, as in
+ * {@code unix:///var/run/model.sock}, and requests are posted to its root.
+ *
+ * A {@link GraphPipeClient} sends {@code unix://} URIs through one of these
+ * by itself; build one directly only to plug it in as the transport for
+ * every URI.
+ *
+ * Connections are pooled and kept alive per socket. Asynchronous exchanges
+ * run the blocking ones on a thread of their own.
+ *
+ * Built on junixsocket, an optional dependency of this library.
+ */
+public class UnixSocketTransport implements Transport {
+    static final String SCHEME = "unix";
+
+    private final PoolingHttpClientConnectionManager connManager;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executor;
+    // The pool keys connections by host, so each socket gets a made-up one.
+    private final ConcurrentMap<String, HttpHost> hosts =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, File> sockets =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger nextHost = new AtomicInteger();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private UnixSocketTransport(Builder b) {
+        this.connManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register(SCHEME, new SocketFactory())
+                        .build(),
+                null,
+                host -> 0,
+                // Never used to connect, but must not fail.
+                host -> new InetAddress[]{InetAddress.getLoopbackAddress()},
+                -1, TimeUnit.MILLISECONDS);
+        this.connManager.setMaxTotal(b.maxTotal);
+        this.connManager.setDefaultMaxPerRoute(b.maxPerSocket);
+        this.connManager.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout(b.socketTimeout)
+                .build());
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connManager)
+                .setSchemePortResolver(host -> 0)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(b.connectTimeout)
+                        .setSocketTimeout(b.socketTimeout)
+                        .build())
+                .disableAutomaticRetries()
+                .build();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "graphpipe-unix");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static boolean isUnixUri(String uri) {
+        return uri.startsWith(SCHEME + ":");
+    }
+
+    @Override
+    public ByteBuffer exchange(String uri, ByteBuffer request)
+            throws IOException {
+        return execute(hostFor(uri), post(request));
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> exchangeAsync(
+            String uri, ByteBuffer request) {
+        HttpHost host = hostFor(uri);
+        HttpPost post = post(request);
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                // Cancelled while queued.
+                return;
+            }
+            try {
+                result.complete(execute(host, post));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                post.abort();
+            }
+        });
+        return result;
+    }
+
+    private static HttpPost post(ByteBuffer request) {
+        HttpPost post = new HttpPost("/");
+        // The default would be the made-up host name.
+        post.setHeader("Host", "localhost");
+        post.setEntity(new FlatBufferEntity(request, false));
+        return post;
+    }
+
+    private ByteBuffer execute(HttpHost host, HttpPost post)
+            throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(host, post)) {
+            GraphPipeClient.checkStatus(response);
+            return ByteBuffer.wrap(
+                    EntityUtils.toByteArray(response.getEntity()));
+        }
+    }
+
+    private HttpHost hostFor(String uri) {
+        URI u = URI.create(uri);
+        String path = u.getPath();
+        if (!SCHEME.equals(u.getScheme()) || path == null || path.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Expected unix:///path/to/socket, got " + uri);
+        }
+        return hosts.computeIfAbsent(path, p -> {
+            String name = "socket" + nextHost.incrementAndGet();
+            sockets.put(name, new File(p));
+            return new HttpHost(name, 0, SCHEME);
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            httpClient.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class SocketFactory implements ConnectionSocketFactory {
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return AFUNIXSocket.newInstance();
+        }
+
+        @Override
+        public Socket connectSocket(
+                int connectTimeout, Socket socket, HttpHost host,
+                InetSocketAddress remoteAddress,
+                InetSocketAddress localAddress, HttpContext context)
+                throws IOException {
+            Socket sock = socket != null ? socket : createSocket(context);
+            try {
+                sock.connect(AFUNIXSocketAddress.of(
+                        sockets.get(host.getHostName())), connectTimeout);
+            } catch (IOException e) {
+                sock.close();
+                throw e;
+            }
+            return sock;
+        }
+    }
+
+    public static class Builder {
+        private int connectTimeout = 10_000;
+        private int socketTimeout = 0;
+        private int maxTotal = 200;
+        private int maxPerSocket = 64;
+
+        private Builder() {
+        }
+
+        public Builder connectTimeout(int millis) {
+            this.connectTimeout = millis;
+            return this;
+        }
+
+        /**
+         * How long to wait for a response. Zero (the default) waits
+         * forever.
+         */
+        public Builder socketTimeout(int millis) {
+            this.socketTimeout = millis;
+            return this;
+        }
+
+        /** Most connections kept open, across all sockets. */
+        public Builder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        /** Most connections kept open to any one socket. */
+        public Builder maxPerSocket(int maxPerSocket) {
+            this.maxPerSocket = maxPerSocket;
+            return this;
+        }
+
+        public UnixSocketTransport build() {
+            return new UnixSocketTransport(this);
+        }
+    }
+}
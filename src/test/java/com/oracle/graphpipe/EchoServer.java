@@ -0,0 +1,178 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import com.oracle.graphpipefb.IOMetadata;
+import com.oracle.graphpipefb.InferRequest;
+import com.oracle.graphpipefb.MetadataResponse;
+import com.oracle.graphpipefb.Req;
+import com.oracle.graphpipefb.Request;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local GraphPipe server for tests. Returns the request's input tensors as
+ * its output tensors, and {@link #metadata} for metadata requests.
+ */
+class EchoServer implements AutoCloseable {
+    private final HttpServer server;
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger metadataRequests = new AtomicInteger();
+    volatile ModelMetadata metadata = new ModelMetadata(
+            "echo", "1", "EchoServer", "", Collections.emptyList(),
+            Collections.emptyList());
+    final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    volatile long delayMillis;
+    // Send responses without a Content-Length.
+    volatile boolean chunked;
+    // Type of the first input of the last inference request.
+    volatile int lastInputType;
+    // Answer every request with a 500.
+    volatile boolean failing;
+    // Whether the last request body came chunked, and its Content-Length.
+    volatile boolean lastRequestChunked;
+    volatile long lastContentLength;
+
+    EchoServer() throws IOException {
+        this.server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+    }
+
+    String uri() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        lastRequestChunked = "chunked".equalsIgnoreCase(
+                exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        lastContentLength = length == null ? -1 : Long.parseLong(length);
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int now = concurrent.incrementAndGet();
+        maxConcurrent.accumulateAndGet(now, Math::max);
+        AtomicBoolean counted = new AtomicBoolean(true);
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (failing) {
+                readAll(exchange.getRequestBody());
+                byte[] msg = "failing".getBytes("UTF-8");
+                reply(exchange, counted, 500, msg, msg.length);
+                return;
+            }
+            respond(exchange, counted);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (counted.getAndSet(false)) {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+
+    // Stops counting the request as concurrent before answering it, so the
+    // client can't send its next one while this one still counts.
+    private void reply(HttpExchange exchange, AtomicBoolean counted,
+                       int status, byte[] body, long length)
+            throws IOException {
+        if (counted.getAndSet(false)) {
+            concurrent.decrementAndGet();
+        }
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void respond(HttpExchange exchange, AtomicBoolean counted)
+            throws IOException {
+        byte[] resp = answer(readAll(exchange.getRequestBody()));
+        reply(exchange, counted, 200, resp, chunked ? 0 : resp.length);
+    }
+
+    // The response to a request, whichever transport it came over.
+    byte[] answer(byte[] body) {
+        Request r = Request.getRootAsRequest(ByteBuffer.wrap(body));
+        byte[] resp;
+        if (r.reqType() == Req.MetadataRequest) {
+            metadataRequests.incrementAndGet();
+            resp = encode(metadata);
+        } else {
+            InferRequest ir = new InferRequest();
+            r.req(ir);
+            if (ir.inputTensorsLength() > 0) {
+                lastInputType = ir.inputTensors(0).type();
+            }
+            resp = StubServer.echo(ir, body.length);
+        }
+        return resp;
+    }
+
+    private static byte[] encode(ModelMetadata md) {
+        FlatBufferBuilder b = new FlatBufferBuilder(1024);
+        int inputs = MetadataResponse.createInputsVector(
+                b, encode(b, md.getInputs()));
+        int outputs = MetadataResponse.createOutputsVector(
+                b, encode(b, md.getOutputs()));
+        int name = b.createString(md.getName());
+        int version = b.createString(md.getVersion());
+        int server = b.createString(md.getServer());
+        int description = b.createString(md.getDescription());
+        b.finish(MetadataResponse.createMetadataResponse(
+                b, name, version, server, description, inputs, outputs));
+        return b.sizedByteArray();
+    }
+
+    private static int[] encode(FlatBufferBuilder b, List<ModelMetadata.IO> ios) {
+        int[] offsets = new int[ios.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            ModelMetadata.IO io = ios.get(i);
+            int name = b.createString(io.getName());
+            int description = b.createString(io.getDescription());
+            int shape = IOMetadata.createShapeVector(b,
+                    io.getShape().stream().mapToLong(l -> l).toArray());
+            offsets[i] = IOMetadata.createIOMetadata(
+                    b, name, description, shape, io.getType());
+        }
+        return offsets;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,458 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.oracle.graphpipefb.Type;
+import junit.framework.TestCase;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class GraphPipeClientTest extends TestCase {
+    private EchoServer server;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new EchoServer();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.close();
+    }
+
+    public void testExecute() throws IOException {
+        float[][] input = {{1, 2, 3}, {4, 5, 6}};
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            NativeTensor nt = client.execute(
+                    server.uri(), NativeTensor.fromArray(input));
+            Assert.assertArrayEquals(input, (float[][])nt.toArray());
+        }
+    }
+
+    public void testExecuteMulti() throws IOException {
+        int[][] a = {{1, 2}, {3, 4}};
+        String[] b = {"x", "yz"};
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            List<NativeTensor> outputs = client.executeMulti(
+                    "", server.uri(),
+                    Arrays.asList(NativeTensor.fromArray(a),
+                            NativeTensor.fromArray(b)),
+                    Collections.emptyList(), Collections.emptyList());
+            assertEquals(2, outputs.size());
+            Assert.assertArrayEquals(a, (int[][])outputs.get(0).toArray());
+            Assert.assertArrayEquals(b, (String[])outputs.get(1).toArray());
+        }
+    }
+
+    public void testExecuteChunkedResponse() throws Exception {
+        server.chunked = true;
+        float[] input = new float[100_000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = i;
+        }
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            NativeTensor nt = client.execute(
+                    server.uri(), NativeTensor.fromArray(input));
+            Assert.assertArrayEquals(input, (float[])nt.toFlatArray(), 0);
+
+            nt = client.executeAsync(server.uri(), NativeTensor.fromArray(input))
+                    .get(10, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(input, (float[])nt.toFlatArray(), 0);
+        }
+    }
+
+    public void testDirectResponseBuffers() throws Exception {
+        long[] input = {1, 2, 3};
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .directResponseBuffers(true)
+                .build()) {
+            NativeTensor nt = client.execute(
+                    server.uri(), NativeTensor.fromArray(input));
+            assertTrue(((NumericNativeTensor)nt).data.isDirect());
+            Assert.assertArrayEquals(input, (long[])nt.toFlatArray());
+
+            nt = client.executeAsync(server.uri(), NativeTensor.fromArray(input))
+                    .get(10, TimeUnit.SECONDS);
+            assertTrue(((NumericNativeTensor)nt).data.isDirect());
+            Assert.assertArrayEquals(input, (long[])nt.toFlatArray());
+        }
+    }
+
+    public void testReusesConnection() throws IOException {
+        int[] input = {1, 2, 3};
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            for (int i = 0; i < 5; i++) {
+                client.execute(server.uri(), NativeTensor.fromArray(input));
+            }
+        }
+        assertEquals(5, server.requests.get());
+        assertEquals(1, server.clientPorts.size());
+    }
+
+    public void testPreConnect() throws IOException {
+        int[] input = {1, 2, 3};
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .preConnect(server.uri())
+                .build()) {
+            assertEquals(0, server.requests.get());
+            client.execute(server.uri(), NativeTensor.fromArray(input));
+        }
+        assertEquals(1, server.clientPorts.size());
+    }
+
+    public void testPreConnectUnreachable() throws IOException {
+        String uri = server.uri();
+        server.close();
+        try {
+            GraphPipeClient.builder().connectTimeout(1000).preConnect(uri).build();
+            fail("Should not be able to connect to a stopped server");
+        } catch (UncheckedIOException e) {
+        }
+    }
+
+    public void testExecuteAsync() throws Exception {
+        double[][] input = {{1, 2}, {3, 4}};
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            NativeTensor nt = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input))
+                    .get(10, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(input, (double[][])nt.toArray());
+        }
+    }
+
+    public void testDirectInputs() throws Exception {
+        float[][] input = {{1, 2, 3}, {4, 5, 6}};
+        try (GraphPipeClient client = GraphPipeClient.builder().build();
+             NativeTensor direct = NativeTensor.directFromArray(input)) {
+            for (int i = 0; i < 2; i++) {
+                NativeTensor nt = client.execute(server.uri(), direct);
+                Assert.assertArrayEquals(input, (float[][])nt.toArray());
+                nt = client.executeAsync(server.uri(), direct)
+                        .get(10, TimeUnit.SECONDS);
+                Assert.assertArrayEquals(input, (float[][])nt.toArray());
+            }
+        }
+    }
+
+    public void testExecuteAsyncEncodingFailure() throws Exception {
+        NativeTensor closed = NativeTensor.directFromArray(new float[]{1, 2});
+        closed.close();
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            CompletableFuture<NativeTensor> f =
+                    client.executeAsync(server.uri(), closed);
+            try {
+                f.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RuntimeException);
+            }
+        }
+        assertEquals(0, server.requests.get());
+    }
+
+    public void testExecuteAsyncBoundsInFlight() throws Exception {
+        server.delayMillis = 100;
+        int[] input = {1, 2, 3};
+        List<CompletableFuture<NativeTensor>> futures = new ArrayList<>();
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .maxInFlightPerEndpoint(2)
+                .build()) {
+            for (int i = 0; i < 6; i++) {
+                futures.add(client.executeAsync(
+                        server.uri(), NativeTensor.fromArray(input)));
+            }
+            for (CompletableFuture<NativeTensor> f : futures) {
+                Assert.assertArrayEquals(
+                        input, (int[])f.get(10, TimeUnit.SECONDS).toFlatArray());
+            }
+        }
+        assertEquals(6, server.requests.get());
+        assertEquals(2, server.maxConcurrent.get());
+    }
+
+    public void testCancelManyQueuedCalls() throws Exception {
+        server.delayMillis = 2000;
+        int[] input = {1};
+        List<NativeTensor> inputs =
+                Collections.singletonList(NativeTensor.fromArray(input));
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .maxInFlightPerEndpoint(1)
+                .build()) {
+            CompletableFuture<NativeTensor> first = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input));
+            for (int i = 0; i < 10_000; i++) {
+                client.executeMultiAsync("", server.uri(), inputs,
+                        Collections.emptyList(), Collections.emptyList())
+                        .cancel(false);
+            }
+            // Releasing the first call's permit skips every cancelled call
+            // without nesting a stack frame for each.
+            first.get(10, TimeUnit.SECONDS);
+            server.delayMillis = 0;
+            Assert.assertArrayEquals(input, (int[])client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input))
+                    .get(10, TimeUnit.SECONDS).toFlatArray());
+        }
+        assertEquals(2, server.requests.get());
+    }
+
+    public void testExecuteAsyncFailure() throws Exception {
+        String uri = server.uri();
+        server.close();
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            client.executeAsync(uri, NativeTensor.fromArray(new int[]{1}))
+                    .get(10, TimeUnit.SECONDS);
+            fail("Should not be able to reach a stopped server");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    public void testFloat16Transport() throws IOException {
+        float[][] input = {{1, 2, 3}, {0.5f, -0.25f, 1024}};
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .float16Transport(true).build()) {
+            NativeTensor nt = client.execute(
+                    server.uri(), NativeTensor.fromArray(input));
+            assertEquals(Type.Float16, server.lastInputType);
+            assertEquals(Type.Float32, nt.getType());
+            Assert.assertArrayEquals(input, (float[][])nt.toArray());
+        }
+    }
+
+    public void testMetrics() throws Exception {
+        server.delayMillis = 20;
+        float[] input = new float[1000];
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .metrics(metrics).build()) {
+            client.execute(server.uri(), NativeTensor.fromArray(input));
+            client.executeAsync(server.uri(), NativeTensor.fromArray(input))
+                    .get(5, TimeUnit.SECONDS);
+            client.getMetadata(server.uri());
+        }
+        InMemoryMetrics.Endpoint e = metrics.getEndpoint(server.uri());
+        assertEquals(2, e.getRequests());
+        assertEquals(0, e.getErrors());
+        assertTrue(e.getRequestBytes() > 2 * 4000);
+        assertTrue(e.getResponseBytes() > 2 * 4000);
+        assertEquals(2, e.getEncodeTime().getCount());
+        assertEquals(2, e.getPoolWaitTime().getCount());
+        assertEquals(2, e.getTransferTime().getCount());
+        assertEquals(2, e.getDecodeTime().getCount());
+        assertEquals(2, e.getTimeToFirstByte().getCount());
+        assertTrue(e.getTimeToFirstByte().getPercentile(50)
+                >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(metrics.toString().contains("time_to_first_byte"));
+    }
+
+    public void testMetricsCountErrors() throws Exception {
+        String uri = server.uri();
+        server.close();
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .metrics(metrics).build()) {
+            try {
+                client.execute(uri, NativeTensor.fromArray(new int[]{1}));
+                fail("Expected IOException");
+            } catch (IOException expected) {
+            }
+            try {
+                client.executeAsync(uri, NativeTensor.fromArray(new int[]{1}))
+                        .get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException expected) {
+            }
+        }
+        assertEquals(2, metrics.getEndpoint(uri).getErrors());
+        assertEquals(0, metrics.getEndpoint(uri).getDecodeTime().getCount());
+    }
+
+    public void testLargeRequests() throws Exception {
+        float[] input = new float[1 << 20];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = i;
+        }
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            for (int i = 0; i < 2; i++) {
+                NativeTensor nt = client.execute(
+                        server.uri(), NativeTensor.fromArray(input));
+                Assert.assertArrayEquals(input, (float[])nt.toArray(), 0);
+                nt = client.executeAsync(
+                        server.uri(), NativeTensor.fromArray(input))
+                        .get(10, TimeUnit.SECONDS);
+                Assert.assertArrayEquals(input, (float[])nt.toArray(), 0);
+            }
+            assertFalse(server.lastRequestChunked);
+            assertTrue(server.lastContentLength > 4 * input.length);
+        }
+    }
+
+    public void testChunkedRequests() throws Exception {
+        int[] input = {1, 2, 3};
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .chunkedRequests(true).build()) {
+            NativeTensor nt = client.execute(
+                    server.uri(), NativeTensor.fromArray(input));
+            Assert.assertArrayEquals(input, (int[])nt.toArray());
+            assertTrue(server.lastRequestChunked);
+            assertEquals(-1, server.lastContentLength);
+
+            server.lastRequestChunked = false;
+            nt = client.executeAsync(server.uri(), NativeTensor.fromArray(input))
+                    .get(10, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(input, (int[])nt.toArray());
+            assertTrue(server.lastRequestChunked);
+        }
+    }
+
+    public void testFlatBufferEntityReadsInPlace() throws IOException {
+        byte[] bytes = new byte[20000];
+        new Random(3).nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+        direct.position(10);
+        direct.put(bytes);
+        direct.position(10);
+        for (ByteBuffer bb : Arrays.asList(
+                ByteBuffer.wrap(bytes), direct)) {
+            FlatBufferEntity entity = new FlatBufferEntity(bb, false);
+            assertEquals(bytes.length, entity.getContentLength());
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                entity.writeTo(out);
+                Assert.assertArrayEquals(bytes, out.toByteArray());
+                Assert.assertArrayEquals(bytes,
+                        EntityUtils.toByteArray(entity));
+            }
+            assertEquals(bb == direct ? 10 : 0, bb.position());
+        }
+    }
+
+    public void testSingleFlightShares() throws Exception {
+        server.delayMillis = 200;
+        float[] input = {1, 2, 3};
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .singleFlight(true).metrics(metrics).build()) {
+            List<CompletableFuture<List<NativeTensor>>> futures =
+                    new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(client.executeMultiAsync("", server.uri(),
+                        Collections.singletonList(
+                                NativeTensor.fromArray(input.clone())),
+                        Collections.emptyList(), Collections.emptyList()));
+            }
+            // A different request isn't held up or merged.
+            NativeTensor other = client.execute(
+                    server.uri(), NativeTensor.fromArray(new float[]{4}));
+            Assert.assertArrayEquals(
+                    new float[]{4}, (float[])other.toArray(), 0);
+
+            NativeTensor first = futures.get(0).get(10, TimeUnit.SECONDS).get(0);
+            for (CompletableFuture<List<NativeTensor>> f : futures) {
+                List<NativeTensor> outputs = f.get(10, TimeUnit.SECONDS);
+                assertSame(first, outputs.get(0));
+                Assert.assertArrayEquals(input, (float[])first.toArray(), 0);
+            }
+            assertEquals(2, server.requests.get());
+            assertEquals(7, metrics.getEndpoint(server.uri()).getShared());
+
+            // Once answered, the same request is sent again.
+            client.execute(server.uri(), NativeTensor.fromArray(input));
+            assertEquals(3, server.requests.get());
+        }
+    }
+
+    public void testSingleFlightSharesBlockingCalls() throws Exception {
+        server.delayMillis = 300;
+        int[] input = {5, 6};
+        List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .singleFlight(true).build()) {
+            for (int i = 0; i < 6; i++) {
+                calls.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return client.execute(
+                                server.uri(), NativeTensor.fromArray(input));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            for (CompletableFuture<NativeTensor> f : calls) {
+                Assert.assertArrayEquals(
+                        input, (int[])f.get(10, TimeUnit.SECONDS).toArray());
+            }
+        }
+        assertEquals(1, server.requests.get());
+    }
+
+    public void testSingleFlightSharesFailures() throws Exception {
+        server.delayMillis = 200;
+        server.failing = true;
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .singleFlight(true).build()) {
+            List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                calls.add(client.executeAsync(
+                        server.uri(), NativeTensor.fromArray(new int[]{1})));
+            }
+            for (CompletableFuture<NativeTensor> f : calls) {
+                try {
+                    f.get(10, TimeUnit.SECONDS);
+                    fail("The shared request failed");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        }
+        assertEquals(1, server.requests.get());
+    }
+
+    public void testSingleFlightCancel() throws Exception {
+        server.delayMillis = 200;
+        long[] input = {1};
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .singleFlight(true).build()) {
+            CompletableFuture<NativeTensor> a = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input));
+            CompletableFuture<NativeTensor> b = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input));
+            // The other caller still wants the response.
+            a.cancel(false);
+            Assert.assertArrayEquals(input,
+                    (long[])b.get(10, TimeUnit.SECONDS).toArray());
+
+            // Nobody does, so a new call can't join the abandoned one.
+            CompletableFuture<NativeTensor> c = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input));
+            c.cancel(false);
+            CompletableFuture<NativeTensor> d = client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(input));
+            Assert.assertArrayEquals(input,
+                    (long[])d.get(10, TimeUnit.SECONDS).toArray());
+        }
+    }
+
+    public void testRemoteUsesDefaultClient() throws IOException {
+        long[] input = {7, 8, 9};
+        NativeTensor nt = Remote.Execute(
+                server.uri(), NativeTensor.fromArray(input));
+        Assert.assertArrayEquals(input, (long[])nt.toFlatArray());
+    }
+}
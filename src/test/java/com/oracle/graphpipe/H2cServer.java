@@ -0,0 +1,116 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link EchoServer} that speaks cleartext HTTP/2 (h2c) only.
+ */
+class H2cServer implements AutoCloseable {
+    private final EchoServer echo;
+    private final HttpAsyncServer server;
+    private final ScheduledExecutorService delayer =
+            Executors.newSingleThreadScheduledExecutor();
+    private final int port;
+    final AtomicInteger requests = new AtomicInteger();
+    final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    volatile long delayMillis;
+    // Answer every request with a 500.
+    volatile boolean failing;
+
+    H2cServer() throws IOException {
+        this.echo = new EchoServer();
+        this.server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                .register("*", new Handler())
+                .create();
+        this.server.start();
+        try {
+            ListenerEndpoint endpoint = server.listen(
+                    new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP)
+                    .get();
+            this.port = ((InetSocketAddress)endpoint.getAddress()).getPort();
+        } catch (InterruptedException | ExecutionException e) {
+            close();
+            throw new IOException(e);
+        }
+    }
+
+    String uri() {
+        return "http://127.0.0.1:" + port;
+    }
+
+    private class Handler implements
+            AsyncServerRequestHandler<Message<HttpRequest, byte[]>> {
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, byte[]>>
+                prepare(HttpRequest request, EntityDetails entityDetails,
+                        HttpContext context) {
+            return new BasicRequestConsumer<>(new BasicAsyncEntityConsumer());
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, byte[]> request,
+                           ResponseTrigger trigger, HttpContext context) {
+            requests.incrementAndGet();
+            clientPorts.add(((InetSocketAddress)HttpCoreContext.adapt(context)
+                    .getEndpointDetails().getRemoteAddress()).getPort());
+            delayer.schedule(() -> {
+                try {
+                    if (failing) {
+                        trigger.submitResponse(AsyncResponseBuilder.create(500)
+                                .setEntity("failing", ContentType.TEXT_PLAIN)
+                                .build(), context);
+                    } else {
+                        trigger.submitResponse(AsyncResponseBuilder.create(200)
+                                .setEntity(AsyncEntityProducers.create(
+                                        echo.answer(request.getBody()),
+                                        ContentType.APPLICATION_OCTET_STREAM))
+                                .build(), context);
+                    }
+                } catch (HttpException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.close(CloseMode.IMMEDIATE);
+        delayer.shutdownNow();
+        echo.close();
+    }
+}
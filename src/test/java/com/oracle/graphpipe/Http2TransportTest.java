@@ -0,0 +1,83 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class Http2TransportTest extends TestCase {
+    private H2cServer server;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new H2cServer();
+        client = GraphPipeClient.builder()
+                .transport(Http2Transport.builder().build())
+                .build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    public void testExecute() throws IOException {
+        NativeTensor out = client.execute(
+                server.uri(), NativeTensor.fromArray(new float[]{1, 2, 3}));
+        assertArrayEquals(new float[]{1, 2, 3}, (float[])out.toArray());
+        assertEquals("EchoServer", client.getMetadata(server.uri()).getServer());
+    }
+
+    public void testMultiplexesOneConnection() throws Exception {
+        server.delayMillis = 200;
+        // Warm the connection up so every call below finds it open.
+        client.execute(server.uri(), NativeTensor.fromArray(new int[]{-1}));
+        long start = System.nanoTime();
+        List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            calls.add(client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(new int[]{i})));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, ((int[])calls.get(i).get().toArray())[0]);
+        }
+        // Concurrent, not one after another.
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(21, server.requests.get());
+        assertEquals(1, server.clientPorts.size());
+    }
+
+    public void testServerError() throws Exception {
+        server.failing = true;
+        NativeTensor in = NativeTensor.fromArray(new int[]{1});
+        try {
+            client.execute(server.uri(), in);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        try {
+            client.executeAsync(server.uri(), in).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private static void assertArrayEquals(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class LoadBalancedClientTest extends TestCase {
+    private EchoServer a;
+    private EchoServer b;
+    private EchoServer c;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        a = new EchoServer();
+        b = new EchoServer();
+        c = new EchoServer();
+        client = GraphPipeClient.builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        a.close();
+        b.close();
+        c.close();
+    }
+
+    private LoadBalancedClient.Builder builder() {
+        return LoadBalancedClient.builder()
+                .client(client)
+                .replica(a.uri())
+                .replica(b.uri())
+                .replica(c.uri());
+    }
+
+    public void testSpreadsCalls() throws IOException {
+        for (LoadBalancedClient.Strategy strategy
+                : LoadBalancedClient.Strategy.values()) {
+            try (LoadBalancedClient lb = builder().strategy(strategy).build()) {
+                for (int i = 0; i < 60; i++) {
+                    float[] input = {i};
+                    NativeTensor nt = lb.execute(NativeTensor.fromArray(input));
+                    Assert.assertArrayEquals(input, (float[])nt.toArray(), 0);
+                }
+            }
+        }
+        assertTrue(a.requests.get() > 10);
+        assertTrue(b.requests.get() > 10);
+        assertTrue(c.requests.get() > 10);
+    }
+
+    public void testAvoidsBusyReplica() throws Exception {
+        try (LoadBalancedClient lb = builder().build()) {
+            // Open the asynchronous connections first.
+            for (int i = 0; i < 3; i++) {
+                lb.executeAsync(NativeTensor.fromArray(new int[]{i}))
+                        .get(10, TimeUnit.SECONDS);
+            }
+            a.requests.set(0);
+            b.requests.set(0);
+            c.requests.set(0);
+
+            a.delayMillis = 1000;
+            List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                calls.add(lb.executeAsync(
+                        NativeTensor.fromArray(new int[]{i})));
+                Thread.sleep(20);
+            }
+            for (CompletableFuture<NativeTensor> f : calls) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+        }
+        // The slow replica is still busy with its first call while the
+        // others turn theirs around.
+        assertTrue(a.requests.get() <= 3);
+        assertEquals(30, a.requests.get() + b.requests.get()
+                + c.requests.get());
+    }
+
+    public void testEjectsFailingReplicaAndProbesItBack() throws Exception {
+        a.failing = true;
+        try (LoadBalancedClient lb = builder()
+                .failureThreshold(2)
+                .ejectionTime(100, TimeUnit.MILLISECONDS)
+                .probeInterval(20, TimeUnit.MILLISECONDS)
+                .build()) {
+            LoadBalancedClient.Replica ra = lb.getReplicas().get(0);
+            int failures = 0;
+            for (int i = 0; i < 40; i++) {
+                try {
+                    lb.execute(NativeTensor.fromArray(new int[]{i}));
+                } catch (IOException e) {
+                    failures++;
+                }
+            }
+            assertEquals(2, failures);
+            assertTrue(ra.isEjected());
+
+            // Probes keep failing, so it stays out.
+            Thread.sleep(300);
+            assertTrue(ra.isEjected());
+            assertTrue(a.requests.get() > 2);
+
+            a.failing = false;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (ra.isEjected() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertFalse(ra.isEjected());
+        }
+    }
+
+    public void testEjectsSlowReplica() throws Exception {
+        a.delayMillis = 50;
+        try (LoadBalancedClient lb = builder()
+                .slowRatio(5)
+                .ejectionTime(1, TimeUnit.MINUTES)
+                .build()) {
+            LoadBalancedClient.Replica ra = lb.getReplicas().get(0);
+            for (int i = 0; i < 200 && !ra.isEjected(); i++) {
+                lb.execute(NativeTensor.fromArray(new int[]{i}));
+            }
+            assertTrue(ra.isEjected());
+            assertFalse(lb.getReplicas().get(1).isEjected());
+        }
+    }
+
+    public void testNeverEjectsMostReplicas() throws Exception {
+        a.failing = true;
+        b.failing = true;
+        c.failing = true;
+        try (LoadBalancedClient lb = builder().failureThreshold(1).build()) {
+            for (int i = 0; i < 10; i++) {
+                try {
+                    lb.execute(NativeTensor.fromArray(new int[]{i}));
+                    fail("Every replica is failing");
+                } catch (IOException expected) {
+                }
+            }
+            int ejected = 0;
+            for (LoadBalancedClient.Replica r : lb.getReplicas()) {
+                ejected += r.isEjected() ? 1 : 0;
+            }
+            assertEquals(1, ejected);
+        }
+    }
+
+    public void testHedgesSlowCalls() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (GraphPipeClient measured = GraphPipeClient.builder()
+                .metrics(metrics).build();
+             LoadBalancedClient lb = LoadBalancedClient.builder()
+                     .client(measured)
+                     .replica(a.uri())
+                     .replica(b.uri())
+                     .failureThreshold(1)
+                     .ejectionTime(1, TimeUnit.MINUTES)
+                     .hedgeDelay(50, TimeUnit.MILLISECONDS)
+                     .hedgeBudget(1)
+                     .build()) {
+            // Eject b, so every call goes to a first and is hedged to b.
+            b.failing = true;
+            LoadBalancedClient.Replica rb = lb.getReplicas().get(1);
+            for (int i = 0; i < 100 && !rb.isEjected(); i++) {
+                try {
+                    lb.execute(NativeTensor.fromArray(new int[]{i}));
+                } catch (IOException expected) {
+                }
+            }
+            assertTrue(rb.isEjected());
+            b.failing = false;
+            a.delayMillis = 1000;
+            long encoded = encoded(metrics);
+            long hedges = lb.getHedges();
+            long wins = lb.getHedgeWins();
+
+            for (int i = 0; i < 12; i++) {
+                long start = System.nanoTime();
+                float[] input = {i};
+                NativeTensor nt = lb.execute(NativeTensor.fromArray(input));
+                Assert.assertArrayEquals(input, (float[])nt.toArray(), 0);
+                assertTrue(System.nanoTime() - start
+                        < TimeUnit.MILLISECONDS.toNanos(500));
+            }
+            assertEquals(12, lb.getHedges() - hedges);
+
+            // The slow copies were cancelled rather than waited for. Wins
+            // are counted just after the call returns, so wait for them too.
+            LoadBalancedClient.Replica ra = lb.getReplicas().get(0);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while ((ra.getOutstanding() > 0 || lb.getHedgeWins() - wins < 12)
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, ra.getOutstanding());
+            assertEquals(12, lb.getHedgeWins() - wins);
+
+            // Each call was encoded once, however many copies were sent.
+            assertEquals(12, encoded(metrics) - encoded);
+        }
+    }
+
+    private static long encoded(InMemoryMetrics metrics) {
+        long encoded = 0;
+        for (InMemoryMetrics.Endpoint e : metrics.getEndpoints().values()) {
+            encoded += e.getRequests();
+        }
+        return encoded;
+    }
+
+    public void testHedgeBudget() throws Exception {
+        a.delayMillis = 100;
+        b.delayMillis = 100;
+        c.delayMillis = 100;
+        try (LoadBalancedClient lb = builder()
+                .hedgeDelay(10, TimeUnit.MILLISECONDS)
+                .hedgeBudget(0.25)
+                .build()) {
+            List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                calls.add(lb.executeAsync(
+                        NativeTensor.fromArray(new int[]{i})));
+            }
+            for (CompletableFuture<NativeTensor> f : calls) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+            // Every call was slow enough to hedge, but only a quarter may be.
+            assertTrue(lb.getHedges() > 0);
+            assertTrue(lb.getHedges() <= 5);
+        }
+    }
+}
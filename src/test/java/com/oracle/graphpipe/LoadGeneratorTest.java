@@ -0,0 +1,123 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGeneratorTest extends TestCase {
+    private StubServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StubServer();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.close();
+    }
+
+    public void testHistogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1_000_000, h.getMax());
+        assertEquals(500_500.0, h.getMean(), 1e-9);
+        assertEquals(500_000, h.getPercentile(50), 500_000 / 64);
+        assertEquals(990_000, h.getPercentile(99), 990_000 / 64);
+        assertEquals(1_000_000, h.getPercentile(100));
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+
+    public void testHistogramBuckets() {
+        Random r = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            long v = r.nextLong() >>> (1 + r.nextInt(63));
+            int index = LatencyHistogram.index(v);
+            assertTrue(v <= LatencyHistogram.highestValue(index));
+            assertTrue(index == 0
+                    || v > LatencyHistogram.highestValue(index - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(
+                LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    public void testCoordinatedOmissionCorrection() {
+        // One 100 ms stall among 1 ms responses, at one request per ms.
+        LatencyHistogram raw = new LatencyHistogram();
+        LatencyHistogram recorded = new LatencyHistogram();
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        for (int i = 0; i < 99; i++) {
+            raw.record(ms);
+            recorded.recordCorrected(ms, ms);
+        }
+        raw.record(100 * ms);
+        recorded.recordCorrected(100 * ms, ms);
+
+        assertEquals(ms, raw.getPercentile(90), ms / 64);
+        assertEquals(199, recorded.getCount());
+        assertTrue(recorded.getPercentile(90) > 50 * ms);
+
+        LatencyHistogram corrected = raw.corrected(ms);
+        assertEquals(recorded.getCount(), corrected.getCount());
+        assertEquals(recorded.getPercentile(90),
+                corrected.getPercentile(90), 2 * ms);
+    }
+
+    public void testClosedLoop() throws Exception {
+        LoadGenerator.Result result = LoadGenerator.builder()
+                .uri(server.uri())
+                .input("x", "float", 2, 8)
+                .concurrency(2)
+                .warmup(100, TimeUnit.MILLISECONDS)
+                .duration(300, TimeUnit.MILLISECONDS)
+                .build().run();
+        assertTrue(result.getRequests() > 0);
+        assertEquals(0, result.getErrors());
+        assertTrue(result.getThroughput() > 0);
+        assertTrue(result.getLatency().getCount()
+                >= result.getServiceTime().getCount());
+        assertTrue(result.toString().contains("closed loop"));
+    }
+
+    public void testOpenLoopCountsQueueingDelay() throws Exception {
+        // One request at a time, each taking 20 ms, offered 100 per second:
+        // the queue grows, and latencies from the schedule grow with it
+        // while the time on the wire stays at 20 ms.
+        server.setDelay(20, TimeUnit.MILLISECONDS);
+        LoadGenerator.Result result = LoadGenerator.builder()
+                .uri(server.uri())
+                .input("int", 4)
+                .concurrency(1)
+                .rate(100)
+                .warmup(0, TimeUnit.MILLISECONDS)
+                .duration(500, TimeUnit.MILLISECONDS)
+                .build().run();
+        assertEquals(0, result.getErrors());
+        long serviceP50 = result.getServiceTime().getPercentile(50);
+        long latencyP99 = result.getLatency().getPercentile(99);
+        assertTrue(serviceP50 >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(latencyP99 > 4 * serviceP50);
+        assertTrue(result.getThroughput() < 60);
+    }
+
+    public void testErrorsAreCounted() throws Exception {
+        String uri = server.uri();
+        server.close();
+        LoadGenerator.Result result = LoadGenerator.builder()
+                .uri(uri)
+                .input("byte", 4)
+                .warmup(0, TimeUnit.MILLISECONDS)
+                .duration(100, TimeUnit.MILLISECONDS)
+                .build().run();
+        assertEquals(0, result.getRequests());
+        assertTrue(result.getErrors() > 0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.oracle.graphpipefb.Type;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class MicroBatcherTest extends TestCase {
+    private EchoServer server;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new EchoServer();
+        client = GraphPipeClient.builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    public void testFullBatchIsSentAtOnce() throws Exception {
+        List<CompletableFuture<NativeTensor>> futures = new ArrayList<>();
+        try (MicroBatcher batcher = new MicroBatcher(
+                client, 4, 10, TimeUnit.SECONDS)) {
+            for (int i = 0; i < 4; i++) {
+                float[][] row = {{i, i + 0.5f}};
+                futures.add(batcher.executeAsync(
+                        server.uri(), NativeTensor.fromArray(row)));
+            }
+            for (int i = 0; i < 4; i++) {
+                NativeTensor nt = futures.get(i).get(5, TimeUnit.SECONDS);
+                Assert.assertArrayEquals(new float[][]{{i, i + 0.5f}},
+                        (float[][])nt.toArray());
+            }
+        }
+        assertEquals(1, server.requests.get());
+    }
+
+    public void testFullBatchesDropTheirTimers() throws Exception {
+        List<CompletableFuture<NativeTensor>> futures = new ArrayList<>();
+        try (MicroBatcher batcher = new MicroBatcher(
+                client, 2, 10, TimeUnit.SECONDS)) {
+            for (int i = 0; i < 10; i++) {
+                futures.add(batcher.executeAsync(
+                        server.uri(), NativeTensor.fromArray(new int[][]{{i}})));
+            }
+            for (CompletableFuture<NativeTensor> f : futures) {
+                f.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(0, batcher.pendingTimers());
+        }
+        assertEquals(5, server.requests.get());
+    }
+
+    public void testPartialBatchIsSentAfterMaxWait() throws Exception {
+        List<CompletableFuture<NativeTensor>> futures = new ArrayList<>();
+        try (MicroBatcher batcher = new MicroBatcher(
+                client, 100, 50, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 3; i++) {
+                // Calls may carry more than one row.
+                int[][] rows = {{i}, {i * 10}};
+                futures.add(batcher.executeAsync(
+                        server.uri(), NativeTensor.fromArray(rows)));
+            }
+            for (int i = 0; i < 3; i++) {
+                NativeTensor nt = futures.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals(2L, (long)nt.getShape().get(0));
+                Assert.assertArrayEquals(new int[]{i, i * 10},
+                        (int[])nt.toFlatArray());
+            }
+        }
+        assertEquals(1, server.requests.get());
+    }
+
+    public void testCallsAfterCloseAreSentAlone() throws Exception {
+        MicroBatcher batcher = new MicroBatcher(client, 4, 10, TimeUnit.SECONDS);
+        CompletableFuture<NativeTensor> held = batcher.executeAsync(
+                server.uri(), NativeTensor.fromArray(new int[][]{{1}}));
+        batcher.close();
+        held.get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 2; i++) {
+            int[][] row = {{i}};
+            NativeTensor nt = batcher.executeAsync(
+                    server.uri(), NativeTensor.fromArray(row))
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(row, (int[][])nt.toArray());
+        }
+        assertEquals(3, server.requests.get());
+    }
+
+    public void testInvalidCallsAreNotIOErrors() throws Exception {
+        server.metadata = new ModelMetadata("m", "1", "EchoServer", "",
+                Collections.singletonList(new ModelMetadata.IO(
+                        "x", "", Arrays.asList(-1L, 1L), Type.Float32)),
+                Collections.emptyList());
+        try (GraphPipeClient validating = GraphPipeClient.builder()
+                .validateRequests(true).build();
+             MicroBatcher batcher = new MicroBatcher(
+                     validating, 4, 10, TimeUnit.MILLISECONDS)) {
+            batcher.execute(server.uri(),
+                    NativeTensor.fromArray(new int[][]{{1}}));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testIncompatibleCallsAreNotMixed() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher(
+                client, 100, 50, TimeUnit.MILLISECONDS)) {
+            CompletableFuture<NativeTensor> a = batcher.executeAsync(
+                    server.uri(), NativeTensor.fromArray(new float[][]{{1, 2}}));
+            CompletableFuture<NativeTensor> b = batcher.executeAsync(
+                    server.uri(), NativeTensor.fromArray(new float[][]{{1, 2, 3}}));
+            CompletableFuture<NativeTensor> c = batcher.executeAsync(
+                    server.uri(), NativeTensor.fromArray(new String[]{"x"}));
+            Assert.assertArrayEquals(new float[][]{{1, 2}},
+                    (float[][])a.get(5, TimeUnit.SECONDS).toArray());
+            Assert.assertArrayEquals(new float[][]{{1, 2, 3}},
+                    (float[][])b.get(5, TimeUnit.SECONDS).toArray());
+            Assert.assertArrayEquals(new String[]{"x"},
+                    (String[])c.get(5, TimeUnit.SECONDS).toArray());
+        }
+        assertEquals(3, server.requests.get());
+    }
+
+    public void testSliceAndConcatRows() {
+        NativeTensor a = NativeTensor.fromArray(new long[][]{{1, 2}, {3, 4}});
+        NativeTensor b = NativeTensor.fromArray(new long[][]{{5, 6}});
+        List<NumericNativeTensor> parts = new ArrayList<>();
+        parts.add((NumericNativeTensor)a);
+        parts.add((NumericNativeTensor)b);
+        NativeTensor ab = NumericNativeTensor.concatRows(parts);
+        Assert.assertArrayEquals(new long[][]{{1, 2}, {3, 4}, {5, 6}},
+                (long[][])ab.toArray());
+        Assert.assertArrayEquals(new long[][]{{3, 4}, {5, 6}},
+                (long[][])ab.sliceRows(1, 2).toArray());
+    }
+}
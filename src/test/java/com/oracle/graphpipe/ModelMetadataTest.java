@@ -0,0 +1,162 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import com.oracle.graphpipefb.Type;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ModelMetadataTest extends TestCase {
+    private EchoServer server;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new EchoServer();
+        server.metadata = new ModelMetadata("resnet", "2", "EchoServer",
+                "an image model",
+                Arrays.asList(
+                        new ModelMetadata.IO("image", "",
+                                Arrays.asList(-1L, 3L), Type.Float32),
+                        new ModelMetadata.IO("scale", "",
+                                Collections.emptyList(), Type.Null)),
+                Collections.singletonList(
+                        new ModelMetadata.IO("probs", "",
+                                Arrays.asList(-1L, 10L), Type.Float32)));
+    }
+
+    @Override
+    protected void tearDown() {
+        server.close();
+    }
+
+    public void testGetMetadata() throws IOException {
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            ModelMetadata md = client.getMetadata(server.uri());
+            assertEquals("resnet", md.getName());
+            assertEquals("2", md.getVersion());
+            assertEquals(2, md.getInputs().size());
+            assertEquals(Arrays.asList(-1L, 3L),
+                    md.getInput("image").getShape());
+            assertEquals(Type.Float32, md.getOutput("probs").getType());
+            assertNull(md.getInput("probs"));
+        }
+    }
+
+    public void testMetadataIsCached() throws Exception {
+        try (GraphPipeClient client = GraphPipeClient.builder().build()) {
+            ModelMetadata md = client.getMetadata(server.uri());
+            assertSame(md, client.getMetadata(server.uri()));
+            assertSame(md, client.getMetadataAsync(server.uri()).get());
+            assertEquals(1, server.metadataRequests.get());
+
+            client.invalidateMetadata(server.uri());
+            client.getMetadata(server.uri());
+            assertEquals(2, server.metadataRequests.get());
+        }
+    }
+
+    public void testMetadataExpires() throws Exception {
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .metadataTtl(0, TimeUnit.MILLISECONDS).build()) {
+            client.getMetadata(server.uri());
+            client.getMetadataAsync(server.uri()).get();
+            assertEquals(2, server.metadataRequests.get());
+        }
+    }
+
+    public void testResolveNames() throws IOException {
+        ModelMetadata md = Remote.GetMetadata(server.uri());
+        assertEquals(Collections.singletonList("image"),
+                md.resolveInputNames(Collections.emptyList(), 1));
+        assertEquals(Arrays.asList("image", "scale"),
+                md.resolveInputNames(Collections.emptyList(), 2));
+        assertEquals(Collections.singletonList("scale"),
+                md.resolveInputNames(Collections.singletonList("scale"), 1));
+        assertEquals(Collections.singletonList("probs"),
+                md.resolveOutputNames(Collections.emptyList()));
+    }
+
+    public void testValidate() throws IOException {
+        ModelMetadata md = Remote.GetMetadata(server.uri());
+        NativeTensor good = NativeTensor.fromArray(new float[][]{{1, 2, 3}});
+        md.validate(Collections.singletonList(good),
+                Collections.emptyList(), Collections.emptyList());
+
+        assertInvalid(md, NativeTensor.fromArray(new double[][]{{1, 2, 3}}),
+                "image", "must be Float32, not Float64");
+        assertInvalid(md, NativeTensor.fromArray(new float[][]{{1, 2}}),
+                "image", "must have shape [-1, 3], not [1, 2]");
+        assertInvalid(md, NativeTensor.fromArray(new float[]{1, 2, 3}),
+                "image", "must have shape [-1, 3], not [3]");
+        assertInvalid(md, good, "label", "no input named 'label'");
+        try {
+            md.validate(Collections.singletonList(good),
+                    Collections.emptyList(), Collections.singletonList("x"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("no output named 'x'"));
+        }
+        // Type and shape unspecified: anything goes.
+        md.validate(Collections.singletonList(
+                NativeTensor.fromArray(new String[]{"a"})),
+                Collections.singletonList("scale"), Collections.emptyList());
+    }
+
+    private static void assertInvalid(
+            ModelMetadata md, NativeTensor input, String name, String message) {
+        try {
+            md.validate(Collections.singletonList(input),
+                    Collections.singletonList(name), Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    public void testValidateRequests() throws Exception {
+        try (GraphPipeClient client = GraphPipeClient.builder()
+                .validateRequests(true).build()) {
+            NativeTensor good = NativeTensor.fromArray(new float[][]{{1, 2, 3}});
+            client.execute(server.uri(), good);
+            client.executeAsync(server.uri(), good).get();
+            assertEquals(2, server.requests.get() - server.metadataRequests.get());
+
+            NativeTensor bad = NativeTensor.fromArray(new int[][]{{1, 2, 3}});
+            try {
+                client.execute(server.uri(), bad);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                client.executeAsync(server.uri(), bad).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            // Neither bad request was sent, and metadata was fetched once.
+            assertEquals(3, server.requests.get());
+            assertEquals(1, server.metadataRequests.get());
+        }
+    }
+
+    public void testValidateInputCount() throws IOException {
+        ModelMetadata md = Remote.GetMetadata(server.uri());
+        NativeTensor t = NativeTensor.fromArray(new float[][]{{1, 2, 3}});
+        List<NativeTensor> three = Arrays.asList(t, t, t);
+        try {
+            md.validate(three, Collections.emptyList(),
+                    Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("takes 2 inputs"));
+        }
+    }
+}
@@ -8,11 +8,16 @@ import com.oracle.graphpipefb.Tensor;
 import com.oracle.graphpipefb.Type;
 import junit.framework.TestCase;
 import org.junit.Assert;
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class NativeTensorTest extends TestCase {
@@ -95,6 +100,58 @@ public class NativeTensorTest extends TestCase {
                 rank3AryData, ((NumericNativeTensor)nt).data.array());
     }
     
+    public void testCreateRank4() {
+        double ary[][][][] = new double[2][3][4][5];
+        for (int i = 0; i < 2; i++)
+            for (int j = 0; j < 3; j++)
+                for (int k = 0; k < 4; k++)
+                    for (int l = 0; l < 5; l++)
+                        ary[i][j][k][l] = i * 1000 + j * 100 + k * 10 + l;
+        NativeTensor nt = NativeTensor.fromArray(ary);
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), nt.getShape());
+        assertEquals(1234.0, nt.getDouble(1, 2, 3, 4));
+        Assert.assertArrayEquals(ary, (double[][][][])nt.toArray());
+    }
+
+    public void testCreateFromObjectArray() {
+        // Rows typed as Object still convert.
+        Object[] ary = {new short[]{1, 2}, new short[]{3, 4}};
+        NativeTensor nt = NativeTensor.fromArray(ary);
+        assertEquals(Arrays.asList(2L, 2L), nt.getShape());
+        Assert.assertArrayEquals(new short[]{1, 2, 3, 4},
+                (short[])nt.toFlatArray());
+    }
+
+    public void testConversionsLeaveTensorIntact() throws Exception {
+        // Conversions don't move the tensor's buffer, so a tensor can be
+        // read from several threads at once.
+        float[][] ary = new float[64][256];
+        for (int i = 0; i < ary.length; i++) {
+            Arrays.fill(ary[i], i);
+        }
+        NativeTensor nt = NativeTensor.fromArray(ary);
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int n = 0; n < 50; n++) {
+                        Assert.assertArrayEquals(ary, (float[][])nt.toArray());
+                        assertEquals(64 * 256,
+                                ((float[])nt.toFlatArray()).length);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure[0]);
+    }
+
     public void testCreateFlat_Numeric() {
         long[] shape = {rank3Ary.length, rank3Ary[0].length, rank3Ary[0][0].length};
         Tensor t1 = NativeTensor.fromFlatArray(rank3AryFlat, shape).toTensor();
@@ -127,9 +184,48 @@ public class NativeTensorTest extends TestCase {
         NativeTensor nt = NativeTensor.fromArray(ary);
         Assert.assertArrayEquals(
                 new String[]{"a", "bc", "def", "ghij"}, 
-                ((StringNativeTensor)nt).data);
+                (String[])nt.toFlatArray());
     }
     
+    public void testStringsFromTensor() {
+        String[][] ary = {{"a", "bc"}, {"d\u00e9f", "ghij"}};
+        NativeTensor nt = NativeTensor.fromTensor(
+                NativeTensor.fromArray(ary).toTensor());
+        assertEquals("d\u00e9f", nt.getString(1, 0));
+        ByteBuffer utf8 = nt.getUtf8(1, 0);
+        assertTrue(utf8.isReadOnly());
+        byte[] bytes = new byte[utf8.remaining()];
+        utf8.get(bytes);
+        Assert.assertArrayEquals("d\u00e9f".getBytes(StandardCharsets.UTF_8), bytes);
+        Assert.assertArrayEquals(ary, (String[][])nt.toArray());
+
+        // Slices and re-encodes without decoding.
+        NativeTensor row = NativeTensor.fromTensor(
+                ((StringNativeTensor)nt).sliceRows(1, 1).toTensor());
+        Assert.assertArrayEquals(new String[]{"d\u00e9f", "ghij"},
+                (String[])row.toFlatArray());
+    }
+
+    public void testFromUtf8() {
+        byte[][] utf8 = {
+                "x".getBytes(StandardCharsets.UTF_8),
+                "\u00fcn\u00ef".getBytes(StandardCharsets.UTF_8),
+                new byte[0]};
+        NativeTensor nt = NativeTensor.fromUtf8(utf8, 3);
+        assertEquals(Type.String, nt.getType());
+        assertEquals("\u00fcn\u00ef", nt.getString(1));
+        assertEquals(0, nt.getUtf8(2).remaining());
+
+        Tensor t = nt.toTensor();
+        assertEquals("\u00fcn\u00ef", t.stringVal(1));
+        assertEquals("", t.stringVal(2));
+        try {
+            NativeTensor.fromUtf8(utf8, 2, 2);
+            fail("Shape doesn't match the number of strings");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     public void testCreateBadType() {
         StringBuffer ary[] = {new StringBuffer()};
         try {
@@ -176,6 +272,35 @@ public class NativeTensorTest extends TestCase {
         assertEquals(Type.String, t.type());
     }
     
+    // A tensor decoded from a FlatBuffer is a view into the middle of a
+    // larger buffer. Re-encoding it must copy just its own bytes.
+    public void testToTensor_FromSlice() {
+        NativeTensor nt = NativeTensor.fromArray(rank3Ary);
+        NativeTensor nt2 = NativeTensor.fromTensor(nt.toTensor());
+        Tensor t = nt2.toTensor();
+
+        Assert.assertArrayEquals(rank3AryData, fromByteBuffer(t.dataAsByteBuffer()));
+        Assert.assertArrayEquals(rank3Ary, (short[][][])nt2.toArray());
+    }
+
+    public void testToTensor_FromDirect() {
+        ByteBuffer heap = NativeTensor.fromArray(rank3Ary).toTensor()
+                .getByteBuffer();
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining());
+        direct.put(heap.duplicate()).flip();
+        NativeTensor nt = NativeTensor.fromTensor(Tensor.getRootAsTensor(direct));
+
+        Tensor t = nt.toTensor();
+        Assert.assertArrayEquals(rank3AryData, fromByteBuffer(t.dataAsByteBuffer()));
+    }
+
+    public void testToTensor_DataAligned() {
+        long ary[] = {1, 2, 3};
+        Tensor t = NativeTensor.fromArray(ary).toTensor();
+        int start = t.getByteBuffer().position();
+        assertEquals(0, (t.dataAsByteBuffer().position() - start) % 8);
+    }
+
     public void testFromTensor() {
         double ary[][][] = {{{1, 2}, {3, 4}}, {{5, 6}, {7, 8}}};
         NativeTensor nt = NativeTensor.fromArray(ary);
@@ -215,14 +340,13 @@ public class NativeTensorTest extends TestCase {
         NumericNativeTensor nt2 = 
                 (NumericNativeTensor)NativeTensor.fromINDArray(nt.toINDArray());
 
-        // INDArray is (currently?) stored as floats even if created with
-        // Doubles.
-        ByteBuffer bb = ByteBuffer.allocate(4 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        // The element type survives the round trip.
+        ByteBuffer bb = ByteBuffer.allocate(8 * 8).order(ByteOrder.LITTLE_ENDIAN);
         for (int i = 1; i <= 8; i++) {
-            bb.putFloat(i);
+            bb.putDouble(i);
         }
         bb.rewind();
-        assertEquals(float.class, nt2.numConv.clazz);
+        assertEquals(double.class, nt2.numConv.clazz);
         Assert.assertArrayEquals(fromByteBuffer(bb), fromByteBuffer(nt2.data));
         assertEquals(Arrays.asList(2L, 2L, 2L), nt2.shape);
     }
@@ -259,7 +383,200 @@ public class NativeTensorTest extends TestCase {
         Assert.assertArrayEquals(ary2, ary);
     }
 
-    // TODO: Load a double array into INDArray and back out. Will become float.
+    public void testAsFloatBuffer() {
+        float ary[][] = {{1, 2, 3}, {4, 5, 6}};
+        NativeTensor nt = NativeTensor.fromTensor(
+                NativeTensor.fromArray(ary).toTensor());
+
+        FloatBuffer fb = nt.asFloatBuffer();
+        assertTrue(fb.isReadOnly());
+        assertEquals(6, fb.remaining());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 1f, fb.get(i));
+        }
+        // Views are independent of each other.
+        fb.get();
+        assertEquals(6, nt.asFloatBuffer().remaining());
+    }
+
+    public void testHalfFloats() {
+        float[] exact = {0f, -0f, 1f, -2f, 0.5f, 65504f, 0x1p-24f,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float f : exact) {
+            assertEquals(f, HalfFloats.toFloat(HalfFloats.fromFloat(f)));
+        }
+        assertTrue(Float.isNaN(
+                HalfFloats.toFloat(HalfFloats.fromFloat(Float.NaN))));
+        // Out of range.
+        assertEquals(Float.POSITIVE_INFINITY,
+                HalfFloats.toFloat(HalfFloats.fromFloat(70000f)));
+        assertEquals(0f, HalfFloats.toFloat(HalfFloats.fromFloat(1e-9f)));
+        // Ties round to even: 2049 sits between 2048 and 2050.
+        assertEquals(2048f, HalfFloats.toFloat(HalfFloats.fromFloat(2049f)));
+        assertEquals(2052f, HalfFloats.toFloat(HalfFloats.fromFloat(2051f)));
+        assertEquals((short)0x3c00, HalfFloats.fromFloat(1f));
+        // Past 65504, values round to the largest half until 65520.
+        assertEquals(65504f, HalfFloats.toFloat(HalfFloats.fromFloat(65519f)));
+        assertEquals(Float.NEGATIVE_INFINITY,
+                HalfFloats.toFloat(HalfFloats.fromFloat(-65520f)));
+        // Just above a tie: rounding to float first would make it a tie and
+        // round down to 1.
+        double above = 1 + 0x1p-11 + 0x1p-40;
+        assertEquals(1f, HalfFloats.toFloat(HalfFloats.fromFloat((float)above)));
+        assertEquals(1 + 0x1p-10f,
+                HalfFloats.toFloat(HalfFloats.fromDouble(above)));
+        assertEquals(1f, HalfFloats.toFloat(HalfFloats.fromDouble(1 + 0x1p-11)));
+        assertEquals(-1f,
+                HalfFloats.toFloat(HalfFloats.fromDouble(-1 - 0x1p-11 + 0x1p-40)));
+        assertEquals(Float.POSITIVE_INFINITY,
+                HalfFloats.toFloat(HalfFloats.fromDouble(1e300)));
+        assertEquals(0f, HalfFloats.toFloat(HalfFloats.fromDouble(1e-300)));
+        // Every half survives a round trip through float and double.
+        for (int h = 0; h < 0x10000; h++) {
+            float f = HalfFloats.toFloat((short)h);
+            if (!Float.isNaN(f)) {
+                assertEquals((short)h, HalfFloats.fromFloat(f));
+                assertEquals((short)h, HalfFloats.fromDouble(f));
+            }
+        }
+    }
+
+    public void testFloat16() {
+        float[][] ary = {{1, 2.5f, -3}, {0.1f, 1000, 65504}};
+        NativeTensor half = NativeTensor.fromArray(ary).toFloat16();
+        assertEquals(Type.Float16, half.getType());
+        assertEquals(Arrays.asList(2L, 3L), half.getShape());
+        assertEquals(12, half.asByteBuffer().remaining());
+        assertSame(half, half.toFloat16());
+
+        NativeTensor decoded = NativeTensor.fromTensor(half.toTensor());
+        assertEquals(Type.Float16, decoded.getType());
+        float[][] back = (float[][])decoded.toArray();
+        for (int i = 0; i < ary.length; i++) {
+            Assert.assertArrayEquals(ary[i], back[i], 1e-3f);
+        }
+        assertEquals(2.5f, decoded.getFloat(0, 1));
+        assertEquals(0.1f, decoded.getFloat(1, 0), 1e-4f);
+
+        NativeTensor single = decoded.toFloat32();
+        assertEquals(Type.Float32, single.getType());
+        assertEquals(-3f, single.asFloatBuffer().get(2));
+
+        NativeTensor fromDouble =
+                NativeTensor.fromArray(new double[]{0.25, -8}).toFloat16();
+        Assert.assertArrayEquals(new float[]{0.25f, -8f},
+                (float[])fromDouble.toFlatArray(), 0f);
+        try {
+            NativeTensor.fromArray(new int[]{1}).toFloat16();
+            fail("Int32 can't be narrowed to Float16");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    public void testTypedViewWrongType() {
+        NativeTensor nt = NativeTensor.fromArray(new int[]{1, 2});
+        assertEquals(2, nt.asIntBuffer().get(1));
+        assertEquals(8, nt.asByteBuffer().remaining());
+        try {
+            nt.asFloatBuffer();
+            fail("Should not view Int32 data as floats");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage().contains("Int32"));
+        }
+        try {
+            NativeTensor.fromArray(new String[]{"a"}).asByteBuffer();
+            fail("String tensors have no typed views");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    public void testGetByIndex() {
+        NativeTensor nt = NativeTensor.fromArray(rank3Ary);
+        for (int i = 0; i < rank3Ary.length; i++) {
+            for (int j = 0; j < rank3Ary[i].length; j++) {
+                for (int k = 0; k < rank3Ary[i][j].length; k++) {
+                    assertEquals(rank3Ary[i][j][k], nt.getShort(i, j, k));
+                }
+            }
+        }
+
+        double ary[][] = {{1.5, 2.5}, {3.5, 4.5}};
+        nt = NativeTensor.fromTensor(NativeTensor.fromArray(ary).toTensor());
+        assertEquals(3.5, nt.getDouble(1, 0));
+        try {
+            nt.getDouble(2, 0);
+            fail("Index out of bounds");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            nt.getDouble(1);
+            fail("Wrong number of indices");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testFromByteBufferIsZeroCopy() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(6 * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 6; i++) {
+            bb.putFloat(i);
+        }
+        bb.flip();
+        NativeTensor nt = NativeTensor.fromByteBuffer(bb, float.class, 2, 3);
+        assertEquals(Arrays.asList(2L, 3L), nt.getShape());
+        assertEquals(5f, nt.getFloat(1, 2));
+
+        bb.putFloat(4 * 5, 42f);
+        assertEquals(42f, nt.getFloat(1, 2));
+
+        try {
+            NativeTensor.fromByteBuffer(bb, float.class, 2, 2);
+            fail("Shape doesn't match the data");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testFromTypedBuffers() {
+        float[] floats = {1, 2, 3, 4};
+        NativeTensor nt = NativeTensor.fromFloatBuffer(
+                FloatBuffer.wrap(floats), 2, 2);
+        assertTrue(((NumericNativeTensor)nt).data.isDirect());
+        Assert.assertArrayEquals(
+                new float[][]{{1, 2}, {3, 4}}, (float[][])nt.toArray());
+
+        long[] longs = {5, 6, 7};
+        nt = NativeTensor.fromLongBuffer(LongBuffer.wrap(longs), 3);
+        Tensor t = NativeTensor.fromTensor(nt.toTensor()).toTensor();
+        assertEquals(Type.Int64, t.type());
+        Assert.assertArrayEquals(longs,
+                (long[])NativeTensor.fromTensor(t).toFlatArray());
+    }
+
+    public void testDirectFromArray() {
+        NativeTensor nt = NativeTensor.directFromArray(rank3Ary);
+        assertTrue(((NumericNativeTensor)nt).data.isDirect());
+        Assert.assertArrayEquals(rank3AryData,
+                fromByteBuffer(nt.toTensor().dataAsByteBuffer()));
+
+        long[] shape = {rank3Ary.length, rank3Ary[0].length, rank3Ary[0][0].length};
+        nt = NativeTensor.directFromFlatArray(rank3AryFlat, shape);
+        Assert.assertArrayEquals(rank3Ary, (short[][][])nt.toArray());
+    }
+
+    public void testCloseFreesDirectMemory() {
+        NativeTensor nt = NativeTensor.directFromArray(new double[]{1, 2});
+        assertEquals(2.0, nt.getDouble(1));
+        nt.close();
+        try {
+            nt.getDouble(1);
+            fail("Should not read a closed tensor");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        // Closing twice, or closing a heap tensor, is harmless.
+        nt.close();
+        NativeTensor.fromArray(new double[]{1, 2}).close();
+    }
+
     // Tests that converting to an INDArray and back works.
     public void testToAndFromINDArray() {
         float ary[][][] = {{{1, 2}, {3, 4}}, {{5, 6}, {7, 8}}};
@@ -273,6 +590,43 @@ public class NativeTensorTest extends TestCase {
         assertEquals(nt2.shape, nt.shape);
     }
 
+    public void testFromINDArraySharesMemory() {
+        INDArray ary = Nd4j.linspace(1, 6, 6).reshape(3, 2);
+        NativeTensor nt = NativeTensor.fromINDArray(ary);
+        assertTrue(nt.asByteBuffer().isDirect());
+        ary.putScalar(new int[]{2, 1}, 42);
+        assertEquals(42f, nt.getFloat(2, 1));
+
+        // A contiguous view is wrapped from its offset.
+        INDArray rows = ary.get(NDArrayIndex.interval(1, 3), NDArrayIndex.all());
+        NativeTensor view = NativeTensor.fromINDArray(rows);
+        assertEquals(Arrays.asList(2L, 2L), view.getShape());
+        Assert.assertArrayEquals(new float[]{3, 4, 5, 42},
+                (float[])view.toFlatArray(), 0);
+
+        // A strided one is copied.
+        NativeTensor col = NativeTensor.fromINDArray(ary.getColumn(0));
+        Assert.assertArrayEquals(new float[]{1, 3, 5},
+                (float[])col.toFlatArray(), 0);
+    }
+
+    public void testINDArrayKeepsType() {
+        double ary[][] = {{1.000000001, 2}, {3, 4}};
+        INDArray nd = NativeTensor.fromArray(ary).toINDArray();
+        assertEquals(DataBuffer.Type.DOUBLE, nd.data().dataType());
+        assertEquals(1.000000001, nd.getDouble(0, 0));
+
+        NativeTensor back = NativeTensor.fromINDArray(nd);
+        assertEquals(Type.Float64, back.getType());
+        Assert.assertArrayEquals(ary, (double[][])back.toArray());
+
+        // Float16 goes to nd4j as floats.
+        INDArray half = NativeTensor.fromArray(new float[][]{{0.5f, 2}})
+                .toFloat16().toINDArray();
+        assertEquals(DataBuffer.Type.FLOAT, half.data().dataType());
+        assertEquals(2f, half.getFloat(new int[]{0, 1}));
+    }
+
     // When an INDArray is permuted, the underlying buffer does not change,
     // nor does its linearView. Ensure that we're getting the right order.
     public static void testFromINDArray_modified() {
@@ -53,6 +53,68 @@ public class RemoteTest extends TestCase {
         assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), data);
     }
    
+    public void testBuildRequestPooled() {
+        float[][] input = new float[64][256];
+        List<NativeTensor> inputs = Arrays.asList(NativeTensor.fromArray(input));
+        List<String> inputNames = Arrays.asList("in");
+        List<String> outputNames = Arrays.asList("out");
+        int size = Remote.estimateRequestSize(
+                "", inputs, inputNames, outputNames);
+
+        ByteBuffer expected = Remote.BuildRequest(
+                "", inputs, inputNames, outputNames);
+        // The estimate should be enough that the builder never grows.
+        assertTrue(expected.remaining() <= size);
+
+        BuilderPool pool = new BuilderPool(1, Integer.MAX_VALUE);
+        BuilderPool.PooledBuilder pb = pool.acquire(size);
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer req = Remote.BuildRequest(
+                    pb.builder, "", inputs, inputNames, outputNames);
+            assertEquals(expected, req);
+            assertEquals(size, pb.capacity());
+            pool.release(pb);
+            BuilderPool.PooledBuilder next = pool.acquire(size);
+            assertSame(pb, next);
+        }
+    }
+
+    public void testBuildRequestPooledDirect() {
+        NativeTensor input = NativeTensor.directFromArray(new float[64][256]);
+        List<NativeTensor> inputs = Arrays.asList(input);
+        List<String> inputNames = Arrays.asList("in");
+        List<String> outputNames = Arrays.asList("out");
+        int size = Remote.estimateRequestSize(
+                "", inputs, inputNames, outputNames);
+        ByteBuffer expected = Remote.BuildRequest(
+                "", inputs, inputNames, outputNames);
+
+        BuilderPool pool = new BuilderPool(2, Integer.MAX_VALUE);
+        BuilderPool.PooledBuilder pb = pool.acquire(size, true);
+        ByteBuffer req = Remote.BuildRequest(
+                pb.builder, "", inputs, inputNames, outputNames);
+        assertTrue(req.isDirect());
+        assertEquals(expected, req);
+        pool.release(pb);
+
+        // Heap and direct builders are pooled apart.
+        BuilderPool.PooledBuilder heap = pool.acquire(size);
+        assertNotSame(pb, heap);
+        assertSame(pb, pool.acquire(size, true));
+        pool.release(heap);
+        pool.release(pb);
+        assertEquals(2, pool.idle());
+        input.close();
+    }
+
+    public void testBuilderPoolDropsLargeBuilders() {
+        BuilderPool pool = new BuilderPool(4, 1024);
+        pool.release(pool.acquire(512));
+        assertEquals(1, pool.idle());
+        pool.release(pool.acquire(4096));
+        assertEquals(0, pool.idle());
+    }
+
     // TODO: Currently requires Aditya's modified RemoteModelWithGraphPipe.ipynb
     public void testRemote() throws IOException {
 //        float[][][] input = {{{1, 2, 3}, {4, 5, 6}}};
@@ -0,0 +1,205 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class ResultCacheTest extends TestCase {
+    private EchoServer server;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new EchoServer();
+        client = GraphPipeClient.builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private static Murmur3.Hash key(NativeTensor input) {
+        return key("", input, "in", "out");
+    }
+
+    private static Murmur3.Hash key(String config, NativeTensor input,
+                                    String inputName, String outputName) {
+        return ResultCache.key(config, "http://model",
+                Collections.singletonList(input),
+                Collections.singletonList(inputName),
+                Collections.singletonList(outputName));
+    }
+
+    public void testHashIgnoresHowBytesAreSplit() {
+        byte[] bytes = new byte[100];
+        new Random(1).nextBytes(bytes);
+        Murmur3.Hash whole = new Murmur3().update(bytes).finish();
+        for (int split = 0; split <= bytes.length; split++) {
+            Murmur3 h = new Murmur3();
+            h.update(ByteBuffer.wrap(bytes, 0, split));
+            h.update(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertEquals(whole, h.finish());
+        }
+        bytes[99]++;
+        assertFalse(whole.equals(new Murmur3().update(bytes).finish()));
+    }
+
+    public void testKeyCoversEverythingSent() {
+        float[] floats = {1, 2, 3, 4};
+        int[] bits = new int[floats.length];
+        for (int i = 0; i < floats.length; i++) {
+            bits[i] = Float.floatToRawIntBits(floats[i]);
+        }
+        Murmur3.Hash k = key(NativeTensor.fromArray(floats));
+
+        assertEquals(k, key(NativeTensor.fromArray(floats.clone())));
+        assertEquals(k, key(NativeTensor.directFromArray(floats)));
+        // Same bytes, different type or shape.
+        assertFalse(k.equals(key(NativeTensor.fromArray(bits))));
+        assertFalse(k.equals(key(
+                NativeTensor.fromFlatArray(floats, new long[]{2, 2}))));
+        assertFalse(k.equals(key(NativeTensor.fromArray(
+                new float[]{1, 2, 3, 5}))));
+        assertFalse(k.equals(key(
+                "cfg", NativeTensor.fromArray(floats), "in", "out")));
+        assertFalse(k.equals(key(
+                "", NativeTensor.fromArray(floats), "in2", "out")));
+        assertFalse(k.equals(key(
+                "", NativeTensor.fromArray(floats), "in", "out2")));
+
+        Murmur3.Hash s = key(NativeTensor.fromArray(new String[]{"ab", "c"}));
+        assertEquals(s, key(NativeTensor.fromUtf8(
+                new byte[][]{{'a', 'b'}, {'c'}}, 2)));
+        assertFalse(s.equals(key(
+                NativeTensor.fromArray(new String[]{"a", "bc"}))));
+    }
+
+    public void testKeyReadsDecodedTensorsInPlace() {
+        float[] floats = {1, 2, 3};
+        ByteBuffer data = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        data.asFloatBuffer().put(floats);
+        assertEquals(key(NativeTensor.fromArray(floats)),
+                key(NativeTensor.fromByteBuffer(data, float.class, 3)));
+        assertEquals(0, data.position());
+    }
+
+    public void testHitsSkipTheServer() throws Exception {
+        ResultCache cache = ResultCache.builder().client(client).build();
+        float[] input = {1, 2, 3};
+        NativeTensor first = cache.execute(
+                server.uri(), NativeTensor.fromArray(input));
+        NativeTensor second = cache.execute(
+                server.uri(), NativeTensor.fromArray(input.clone()));
+        NativeTensor third = cache.executeAsync(
+                server.uri(), NativeTensor.fromArray(input.clone()))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(input, (float[])first.toArray(), 0);
+        assertSame(first, second);
+        assertSame(first, third);
+        assertEquals(1, server.requests.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3, cache.getHitRatio(), 1e-9);
+
+        cache.execute(server.uri(), NativeTensor.fromArray(new float[]{4}));
+        assertEquals(2, server.requests.get());
+        assertEquals(2, cache.size());
+
+        List<NativeTensor> outputs = cache.executeMulti(
+                "", server.uri(), Collections.singletonList(
+                        NativeTensor.fromArray(input)),
+                Collections.emptyList(), Collections.emptyList());
+        try {
+            outputs.set(0, null);
+            fail("Shared outputs must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            first.asByteBuffer().putFloat(0, 0);
+            fail("Shared outputs must be read-only");
+        } catch (java.nio.ReadOnlyBufferException expected) {
+        }
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        ResultCache cache = ResultCache.builder()
+                .client(client)
+                .maxEntries(2)
+                .build();
+        NativeTensor a = NativeTensor.fromArray(new int[]{1});
+        NativeTensor b = NativeTensor.fromArray(new int[]{2});
+        NativeTensor c = NativeTensor.fromArray(new int[]{3});
+        cache.execute(server.uri(), a);
+        cache.execute(server.uri(), b);
+        cache.execute(server.uri(), a);
+        cache.execute(server.uri(), c);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        assertEquals(3, server.requests.get());
+
+        // b was the least recently used, so it went.
+        cache.execute(server.uri(), a);
+        cache.execute(server.uri(), c);
+        assertEquals(3, server.requests.get());
+        cache.execute(server.uri(), b);
+        assertEquals(4, server.requests.get());
+    }
+
+    public void testBoundsBytes() throws Exception {
+        NativeTensor small = NativeTensor.fromArray(new float[100]);
+        long size = small.serializedSize();
+        ResultCache cache = ResultCache.builder()
+                .client(client)
+                .maxBytes(size * 2)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            float[] input = new float[100];
+            input[0] = i;
+            cache.execute(server.uri(), NativeTensor.fromArray(input));
+        }
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() <= size * 2);
+        assertEquals(3, cache.getEvictions());
+
+        // Too big to cache at all, and nothing is pushed out for it.
+        NativeTensor big = NativeTensor.fromArray(new float[1000]);
+        cache.execute(server.uri(), big);
+        cache.execute(server.uri(), big);
+        assertEquals(7, server.requests.get());
+        assertEquals(2, cache.size());
+    }
+
+    public void testExpires() throws Exception {
+        ResultCache cache = ResultCache.builder()
+                .client(client)
+                .ttl(100, TimeUnit.MILLISECONDS)
+                .build();
+        NativeTensor input = NativeTensor.fromArray(new long[]{1, 2});
+        cache.execute(server.uri(), input);
+        cache.execute(server.uri(), input);
+        assertEquals(1, server.requests.get());
+        Thread.sleep(150);
+        cache.execute(server.uri(), input);
+        assertEquals(2, server.requests.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.size());
+        assertTrue(Arrays.asList(cache.toString().split(" "))
+                .contains("hits=1"));
+    }
+}
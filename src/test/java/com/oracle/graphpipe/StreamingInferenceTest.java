@@ -0,0 +1,113 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class StreamingInferenceTest extends TestCase {
+    private EchoServer server;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new EchoServer();
+        client = GraphPipeClient.builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private StreamingInference.Builder builder() {
+        return StreamingInference.builder().client(client).uri(server.uri());
+    }
+
+    // The inputs {0}, {1}, ..., counting how many have been read.
+    private static Iterator<NativeTensor> inputs(int count, AtomicInteger read) {
+        return new Iterator<NativeTensor>() {
+            @Override
+            public boolean hasNext() {
+                return read.get() < count;
+            }
+
+            @Override
+            public NativeTensor next() {
+                return NativeTensor.fromArray(new int[]{read.getAndIncrement()});
+            }
+        };
+    }
+
+    public void testOrdered() {
+        server.delayMillis = 5;
+        AtomicInteger read = new AtomicInteger();
+        StreamingInference.Results results = builder().parallelism(4).build()
+                .execute(inputs(100, read));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(results.hasNext());
+            StreamingInference.Result r = results.next();
+            assertNull(r.getError());
+            assertEquals(i, r.getIndex());
+            assertEquals(i, ((int[])r.getOutput().toArray())[0]);
+            // Never more than four inputs ahead of the results taken.
+            assertTrue(read.get() - (i + 1) <= 4);
+        }
+        assertFalse(results.hasNext());
+        assertEquals(100, server.requests.get());
+    }
+
+    public void testReadsInputsOnlyAsResultsAreTaken() {
+        server.delayMillis = 20;
+        AtomicInteger read = new AtomicInteger();
+        StreamingInference.Results results = builder().parallelism(3).build()
+                .execute(inputs(1000, read));
+        assertEquals(0, read.get());
+        results.next();
+        assertEquals(4, read.get());
+        results.next();
+        results.next();
+        assertEquals(6, read.get());
+        results.close();
+        assertFalse(results.hasNext());
+        assertEquals(6, read.get());
+    }
+
+    public void testUnordered() {
+        AtomicInteger read = new AtomicInteger();
+        Set<Long> seen = new HashSet<>();
+        try (Stream<StreamingInference.Result> results = builder()
+                .parallelism(8).ordered(false).build()
+                .stream(inputs(200, read))) {
+            results.forEach(r -> {
+                assertNull(r.getError());
+                assertEquals(r.getIndex(),
+                        ((int[])r.getOutput().toArray())[0]);
+                assertTrue(seen.add(r.getIndex()));
+            });
+        }
+        assertEquals(200, seen.size());
+    }
+
+    public void testFailuresDontEndTheStream() {
+        server.failing = true;
+        AtomicInteger read = new AtomicInteger();
+        try (Stream<StreamingInference.Result> results = builder()
+                .parallelism(2).build().stream(inputs(5, read))) {
+            assertEquals(5, results
+                    .filter(r -> r.getError() instanceof IOException)
+                    .filter(r -> r.getOutputs() == null)
+                    .collect(Collectors.toList()).size());
+        }
+    }
+}
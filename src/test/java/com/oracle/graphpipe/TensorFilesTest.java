@@ -0,0 +1,67 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TensorFilesTest extends TestCase {
+    private Path file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = Files.createTempFile("tensors", ".gptf");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public void testSaveAndMap() throws IOException {
+        float[][] ary = {{1, 2, 3}, {4, 5, 6}};
+        NativeTensor.fromArray(ary).save(file);
+
+        NativeTensor nt = NativeTensor.map(file);
+        Assert.assertArrayEquals(ary, (float[][])nt.toArray());
+        assertEquals(6f, nt.getFloat(1, 2));
+        assertTrue(((NumericNativeTensor)nt).data.isDirect());
+    }
+
+    public void testSaveAllAndMapAll() throws IOException {
+        Map<String, NativeTensor> tensors = new LinkedHashMap<>();
+        tensors.put("weights", NativeTensor.fromArray(new double[][]{{1, 2}, {3, 4}}));
+        tensors.put("labels", NativeTensor.fromArray(new String[]{"cat", "dog"}));
+        tensors.put("ids", NativeTensor.directFromArray(new long[]{7, 8, 9}));
+        NativeTensor.saveAll(file, tensors);
+
+        Map<String, NativeTensor> mapped = NativeTensor.mapAll(file);
+        assertEquals(Arrays.asList("weights", "labels", "ids"),
+                Arrays.asList(mapped.keySet().toArray()));
+        Assert.assertArrayEquals(new double[][]{{1, 2}, {3, 4}},
+                (double[][])mapped.get("weights").toArray());
+        Assert.assertArrayEquals(new String[]{"cat", "dog"},
+                (String[])mapped.get("labels").toArray());
+        Assert.assertArrayEquals(new long[]{7, 8, 9},
+                (long[])mapped.get("ids").toFlatArray());
+    }
+
+    public void testMapRejectsOtherFiles() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        try {
+            NativeTensor.map(file);
+            fail("Should not map a file that isn't a tensor file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a tensor file"));
+        }
+    }
+}
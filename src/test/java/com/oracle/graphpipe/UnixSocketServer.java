@@ -0,0 +1,124 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import org.newsclub.net.unix.AFUNIXServerSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link EchoServer} that speaks just enough HTTP/1.1 over a Unix domain
+ * socket: keep-alive, and request bodies with a Content-Length.
+ */
+class UnixSocketServer implements AutoCloseable {
+    private final EchoServer echo;
+    private final File socket;
+    private final AFUNIXServerSocket server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger connections = new AtomicInteger();
+    // Answer every request with a 500.
+    volatile boolean failing;
+
+    UnixSocketServer() throws IOException {
+        this.echo = new EchoServer();
+        this.socket = File.createTempFile("graphpipe", ".sock");
+        this.socket.delete();
+        this.server = AFUNIXServerSocket.newInstance();
+        this.server.bind(AFUNIXSocketAddress.of(socket));
+        executor.execute(this::accept);
+    }
+
+    String uri() {
+        return "unix://" + socket.getAbsolutePath();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket conn = server.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> serve(conn));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket conn) {
+        try (Socket s = conn) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                int length = -1;
+                String line = readLine(in);
+                if (line == null) {
+                    return;
+                }
+                while (!(line = readLine(in)).isEmpty()) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(
+                                line.substring(15).trim());
+                    }
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                requests.incrementAndGet();
+                if (failing) {
+                    reply(out, "500 Internal Server Error",
+                            "failing".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    reply(out, "200 OK", echo.answer(body));
+                }
+            }
+        } catch (IOException e) {
+            // The client went away.
+        }
+    }
+
+    private static void reply(OutputStream out, String status, byte[] body)
+            throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: "
+                + body.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(body);
+        out.flush();
+    }
+
+    // Null at the end of the stream.
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+        echo.close();
+        socket.delete();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+** Copyright © 2018, Oracle and/or its affiliates. All rights reserved.
+** Licensed under the Universal Permissive License v 1.0 as shown at http://oss.oracle.com/licenses/upl.
+*/
+package com.oracle.graphpipe;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class UnixSocketTransportTest extends TestCase {
+    private UnixSocketServer server;
+    private GraphPipeClient client;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new UnixSocketServer();
+        client = GraphPipeClient.builder().build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    public void testExecute() throws IOException {
+        NativeTensor out = client.execute(
+                server.uri(), NativeTensor.fromArray(new int[]{1, 2, 3}));
+        assertEquals(3, ((int[])out.toArray())[2]);
+        assertEquals("EchoServer", client.getMetadata(server.uri()).getServer());
+    }
+
+    public void testReusesConnection() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            client.execute(server.uri(), NativeTensor.fromArray(new int[]{i}));
+        }
+        assertEquals(5, server.requests.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    public void testExecuteAsync() throws Exception {
+        List<CompletableFuture<NativeTensor>> calls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            calls.add(client.executeAsync(
+                    server.uri(), NativeTensor.fromArray(new int[]{i})));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, ((int[])calls.get(i).get().toArray())[0]);
+        }
+    }
+
+    public void testServerError() throws Exception {
+        server.failing = true;
+        NativeTensor in = NativeTensor.fromArray(new int[]{1});
+        try {
+            client.execute(server.uri(), in);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        try {
+            client.executeAsync(server.uri(), in).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    public void testMissingSocket() throws IOException {
+        try {
+            client.execute("unix:///nonexistent/model.sock",
+                    NativeTensor.fromArray(new int[]{1}));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}